@@ -25,6 +25,11 @@
 #define syscallMmap		10
 #define syscallConnect		11
 #define syscallAccept		12
+#define syscallPipe		13
+#define syscallGetrusage	14
+#define syscallAioRead		15
+#define syscallAioWrite		16
+#define syscallAioWait		17
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -257,6 +262,91 @@ int connect(int host, int port);
  */
 int accept(int port);
 
+/**
+ * Create a pipe: a one-way stream through a fixed-size buffer in the kernel.
+ * fileDescriptors[0] is set to a new file descriptor for the read end, and
+ * fileDescriptors[1] to one for the write end.
+ *
+ * read() from a pipe waits until at least one byte is available, and may
+ * return fewer bytes than requested. Once the write end is closed and the
+ * buffered data has been read, read() returns 0. write() to a pipe waits
+ * until all of the data has been buffered. If the read end is closed, it
+ * returns the number of bytes written, or -1 if none were.
+ *
+ * exec() does not yet pass file descriptors to the child, so both ends stay
+ * with the process that called pipe(); a pipeline such as cat | sort cannot
+ * be built with it. A process that writes more than the buffer holds (4096
+ * bytes) to its own pipe before reading waits forever.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int pipe(int *fileDescriptors);
+
+/* The number of syscall numbers counted separately in struct rusage. */
+#define RUSAGE_SYSCALLS		32
+
+/* Resources used by a process. Ticks are counted only while the process is
+ * running, and are split between user mode and the kernel.
+ */
+struct rusage {
+    int ru_utime;		/* ticks running in user mode */
+    int ru_stime;		/* ticks running in the kernel */
+    int ru_majflt;		/* page faults */
+    int ru_tlbmiss;		/* TLB misses */
+    int ru_inbytes;		/* bytes read by read() */
+    int ru_outbytes;		/* bytes written by write() */
+    int ru_coninbytes;		/* of which read from the console */
+    int ru_conoutbytes;		/* of which written to the console */
+    int ru_syscalls[RUSAGE_SYSCALLS];	/* calls, by syscall number */
+};
+
+/**
+ * Fill in *usage with the resources used by the calling process so far.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int getrusage(struct rusage *usage);
+
+/* The completion of an asynchronous read or write. */
+struct aio_result {
+    int id;			/* as returned by aio_read() or aio_write() */
+    int result;			/* as read() or write() would have returned */
+};
+
+/**
+ * Start reading up to count bytes from fileDescriptor into buffer, and
+ * return at once. The read is done by the kernel in the background, in the
+ * order requests were made, at the file position current when it starts.
+ * The buffer must not be used until the read has completed.
+ *
+ * Only files can be read or written asynchronously, not pipes or the
+ * console.
+ *
+ * Returns an ID for the request, to be matched against the results of
+ * aio_wait(), or -1 if an error occurred, fileDescriptor is a pipe or the
+ * console, or too many requests are outstanding. A request is outstanding
+ * until aio_wait() has returned its result, and at most 32 may be.
+ */
+int aio_read(int fileDescriptor, void *buffer, int count);
+
+/**
+ * Start writing count bytes from buffer to fileDescriptor, and return at
+ * once, like aio_read(). The buffer must not be changed until the write has
+ * completed.
+ */
+int aio_write(int fileDescriptor, void *buffer, int count);
+
+/**
+ * Store the results of up to max completed asynchronous requests in
+ * results, in the order they completed. If block is nonzero and no request
+ * has completed, waits for one, unless none are outstanding. results must
+ * have room for max results (or 32, if max is larger); if it does not, no
+ * result is collected.
+ *
+ * Returns the number of results stored, or -1 if an error occurred.
+ */
+int aio_wait(struct aio_result *results, int max, int block);
+
 #endif /* START_S */
 
 #endif /* SYSCALL_H */
@@ -14,10 +14,16 @@ import nachos.threads.*;
  * from the network and to place them in the appropriate queues. This cannot
  * be done in the receive interrupt handler because each queue (implemented
  * with a <tt>SynchList</tt>) is protected by a lock.
+ *
+ * <p>
+ * Each queue holds at most <tt>PostOffice.mailboxCapacity</tt> messages. A
+ * message arriving at a full queue is dropped, just as if the network had
+ * lost it, so a port that nobody reads cannot use up memory.
  */
 public class PostOffice {
     /**
-     * Allocate a new post office, using an array of <tt>SynchList</tt>s.
+     * Allocate a new post office, using an array of
+     * <tt>BoundedSynchList</tt>s.
      * Register the interrupt handlers with the network hardware and start the
      * "postal worker" thread.
      */
@@ -26,9 +32,11 @@ public class PostOffice {
 	messageSent = new Semaphore(0);
 	sendLock = new Lock();
 
-	queues = new SynchList[MailMessage.portLimit];
+	int capacity = Config.getInteger("PostOffice.mailboxCapacity",
+					 defaultMailboxCapacity);
+	queues = new BoundedSynchList[MailMessage.portLimit];
 	for (int i=0; i<queues.length; i++)
-	    queues[i] = new SynchList();
+	    queues[i] = new BoundedSynchList(capacity);
 
 	Runnable receiveHandler = new Runnable() {
 	    public void run() { receiveInterrupt(); }
@@ -66,6 +74,30 @@ public class PostOffice {
 	return mail;
     }
 
+    /**
+     * Retrieve a message on the specified port, waiting at most
+     * <i>timeoutTicks</i> clock ticks for one to arrive.
+     *
+     * @param	port		the port on which to wait for a message.
+     * @param	timeoutTicks	the most clock ticks to wait.
+     *
+     * @return	the message received, or <tt>null</tt> if none arrived in
+     *		time.
+     */
+    public MailMessage receive(int port, long timeoutTicks) {
+	Lib.assertTrue(port >= 0 && port < queues.length);
+
+	Lib.debug(dbgNet, "waiting for mail on port " + port);
+
+	MailMessage mail = (MailMessage) queues[port].poll(timeoutTicks);
+
+	if (Lib.test(dbgNet))
+	    System.out.println((mail == null ? "timed out" : "got mail")
+			       + " on port " + port + ": " + mail);
+
+	return mail;
+    }
+
     /**
      * Wait for incoming messages, and then put them in the correct mailbox.
      */
@@ -88,8 +120,11 @@ public class PostOffice {
 		System.out.println("delivering mail to port " + mail.dstPort
 				   + ": " + mail);
 
-	    // atomically add message to the mailbox and wake a waiting thread
-	    queues[mail.dstPort].add(mail);
+	    // atomically add message to the mailbox and wake a waiting thread,
+	    // or drop it if the mailbox is full
+	    if (!queues[mail.dstPort].offer(mail))
+		Lib.debug(dbgNet, "mailbox full, dropping mail to port "
+			  + mail.dstPort);
 	}
     }
 
@@ -125,10 +160,11 @@ public class PostOffice {
 	messageSent.V();
     }
 
-    private SynchList[] queues;
+    private BoundedSynchList[] queues;
     private Semaphore messageReceived;	// V'd when a message can be dequeued
     private Semaphore messageSent;	// V'd when a message can be queued
     private Lock sendLock;
 
+    private static final int defaultMailboxCapacity = 64;
     private static final char dbgNet = 'n';
 }
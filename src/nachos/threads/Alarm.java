@@ -2,11 +2,27 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.PriorityQueue;
+import java.util.ArrayList;
 
 /**
  * Uses the hardware timer to provide preemption, and to allow threads to sleep
  * until a certain time.
+ *
+ * <p>
+ * Sleeping threads are kept in a hashed timing wheel: an array of
+ * <tt>numSlots</tt> lists, each covering <tt>slotTicks</tt> ticks of wake-up
+ * times, wrapping around every <tt>numSlots*slotTicks</tt> ticks. The lists
+ * are linked through the sleeping threads themselves, so going to sleep
+ * allocates nothing. Each timer interrupt visits only the slots whose time
+ * has come since the previous interrupt, and readies every due thread at
+ * once. A thread sleeping longer than one turn of the wheel simply stays in
+ * its slot, and is skipped until its turn comes.
+ *
+ * <p>
+ * <tt>sleepOn()</tt> gives synchronization primitives timed waits: a thread
+ * waiting on a thread queue is also put in the wheel, and if its time comes
+ * before <tt>nextThread()</tt> returns it, the timer interrupt removes it
+ * from the queue and wakes it.
  */
 public class Alarm {
     /**
@@ -16,20 +32,9 @@ public class Alarm {
      * <p><b>Note</b>: Nachos will not function correctly with more than one
      * alarm.
      */
-	 
-	/**
-		Use condition variables and two lists, one to list the system time until a thread
-		can awaken and one to list the threads that will be awakened at that time
-	*/
-
-	//create a priorityQueue to hold Data objects (see private inner class Data at bottom of file)
-	private PriorityQueue<Data> priorityQueue;
-	
     public Alarm() {
-    	
-	//initialize the priority queue
-    priorityQueue = new PriorityQueue<Data>();
-    
+	lastSlot = Machine.timer().getTime() / slotTicks;
+
 	Machine.timer().setInterruptHandler(new Runnable() {
 		public void run() { timerInterrupt(); }
 	    });
@@ -37,25 +42,28 @@ public class Alarm {
 
     /**
      * The timer interrupt handler. This is called by the machine's timer
-     * periodically (approximately every 500 clock ticks). Causes the current
-     * thread to yield, forcing a context switch if there is another thread
-     * that should be run.
+     * periodically (approximately every 500 clock ticks). Wakes every thread
+     * whose time has come, then causes the current thread to yield, forcing
+     * a context switch if there is another thread that should be run.
      */
-    public void timerInterrupt()
-    {
-    	//if a thread has waited long enough, wake it up and remove it from the priority queue.
-    	//keep doing this until the queue is empty or the threads remaining in the queue must wait longer
-    	while(!priorityQueue.isEmpty() && (Machine.timer().getTime() > priorityQueue.peek().timeToWake))
-    	{
-    		Data encapsulate = priorityQueue.remove(); //get the Data object from the priority queue
-    		Condition2 condition = encapsulate.condition; //get the condition object from the Data object
-    		Lock lock = encapsulate.lock; //get the lock from the Data object
-    		lock.acquire();
-    		condition.wake(); //wake up the thread to be awoken
-    		lock.release();
-    	}
-    		
-    	KThread.currentThread().yield();
+    public void timerInterrupt() {
+	long time = Machine.timer().getTime();
+	long slot = time / slotTicks;
+
+	// visit every slot that has come due, but no slot more than once
+	long first = Math.max(lastSlot, slot - numSlots + 1);
+	for (long s=first; s<=slot; s++)
+	    collectDue((int) (s & (numSlots-1)), time);
+
+	// the current slot may still hold threads due later in it
+	lastSlot = slot;
+
+	if (!dueList.isEmpty()) {
+	    KThread.readyAll(dueList);
+	    dueList.clear();
+	}
+
+	KThread.yield();
     }
 
     /**
@@ -72,62 +80,133 @@ public class Alarm {
      *
      * @see	nachos.machine.Timer#getTime()
      */
-    public void waitUntil(long x)
-    {
-    	//time must advance from now to now + x
-    	long timeToWake = Machine.timer().getTime() + x;
-    	
-    	//create a new lock and a new condition2 each time a thread calls this method
-    	Lock lock = new Lock();
-    	Condition2 condition = new Condition2(lock);
-    	
-    	//if time has already advanced, don't bother sleeping the current thread
-    	//otherwise, this thread must sleep
-    	if (Machine.timer().getTime() < timeToWake)
-    	{
-    		lock.acquire();
-    		
-    		//add the condition, time to wake up, and lock to the priority queue
-    		priorityQueue.add(new Data(condition, timeToWake, lock));
-    		
-    		//sleep the current thread
-    		condition.sleep();
-    		lock.release();
-    	}
+    public void waitUntil(long x) {
+	if (x <= 0)
+	    return;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	schedule(KThread.currentThread(), Machine.timer().getTime() + x);
+	KThread.sleep();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Put the current thread to sleep on a thread queue for at most <i>x</i>
+     * ticks. The current thread must already be waiting for access to the
+     * queue, and interrupts must be disabled. If <tt>nextThread()</tt> has not
+     * returned the thread by the first timer interrupt at least <i>x</i>
+     * ticks from now, the thread is removed from the queue and woken.
+     *
+     * <p>
+     * The queue must support <tt>ThreadQueue.remove()</tt>.
+     *
+     * @param	queue	the queue the current thread is waiting on.
+     * @param	x	the most clock ticks to wait.
+     * @return	<tt>true</tt> if the thread timed out, or <tt>false</tt> if
+     *		it was returned by <tt>nextThread()</tt> and woken in time.
+     */
+    public boolean sleepOn(ThreadQueue queue, long x) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	KThread thread = KThread.currentThread();
+
+	if (x <= 0) {
+	    Lib.assertTrue(queue.remove(thread));
+	    return true;
+	}
+
+	thread.timeoutQueue = queue;
+	thread.timedOut = false;
+	schedule(thread, Machine.timer().getTime() + x);
+
+	KThread.sleep();
+
+	thread.timeoutQueue = null;
+	if (!thread.timedOut)
+	    cancel(thread);
+
+	return thread.timedOut;
+    }
+
+    /**
+     * Put a thread in the wheel, to be woken at the specified time.
+     */
+    private void schedule(KThread thread, long wakeTime) {
+	thread.wakeTime = wakeTime;
+
+	int index = slotOf(wakeTime);
+	thread.alarmNext = slots[index];
+	slots[index] = thread;
+    }
+
+    /**
+     * Take a thread out of the wheel, if it is still there.
+     */
+    private void cancel(KThread thread) {
+	int index = slotOf(thread.wakeTime);
+
+	KThread previous = null;
+	for (KThread t=slots[index]; t!=null; previous=t, t=t.alarmNext) {
+	    if (t == thread) {
+		if (previous == null)
+		    slots[index] = t.alarmNext;
+		else
+		    previous.alarmNext = t.alarmNext;
+		t.alarmNext = null;
+		return;
+	    }
+	}
     }
-    
+
+    private static int slotOf(long wakeTime) {
+	return (int) ((wakeTime / slotTicks) & (numSlots-1));
+    }
+
     /**
-     * A private inner class that is used to encapsulate data for the priority queue.
-     * This class takes a condition2, lock, and time in for the constructor
+     * Move every thread in the specified slot whose wake time has passed to
+     * <tt>dueList</tt>. A thread in <tt>sleepOn()</tt> is only woken if it is
+     * still waiting on its queue.
      */
-    private class Data implements Comparable<Data>
-    {
-    	Condition2 condition;
-    	long timeToWake;
-    	Lock lock;
-    	
-    	public Data(Condition2 thisCondition, long timeToWakeUp, Lock thisLock)
-    	{
-    		condition = thisCondition;
-    		timeToWake = timeToWakeUp;
-    		lock = thisLock;
-    	}
-    	
-    	//override compareTo method, sort based upon times to wake
-    	public int compareTo(Data other)
-    	{
-    		if (this.timeToWake > other.timeToWake)
-    		{
-    			return 1;
-    		}
-    		else if (this.timeToWake < other.timeToWake)
-    		{
-    			return -1;
-    		}
-    		else
-    		{
-    			return 0;
-    		}
-    	}
+    private void collectDue(int index, long time) {
+	KThread previous = null;
+	KThread thread = slots[index];
+
+	while (thread != null) {
+	    KThread next = thread.alarmNext;
+
+	    if (thread.wakeTime <= time) {
+		if (previous == null)
+		    slots[index] = next;
+		else
+		    previous.alarmNext = next;
+
+		thread.alarmNext = null;
+
+		if (thread.timeoutQueue == null)
+		    dueList.add(thread);
+		else if (thread.timeoutQueue.remove(thread)) {
+		    thread.timedOut = true;
+		    dueList.add(thread);
+		}
+	    }
+	    else {
+		previous = thread;
+	    }
+
+	    thread = next;
+	}
     }
+
+    /** The number of slots in the wheel. Must be a power of two. */
+    private static final int numSlots = 256;
+    /** The range of wake-up times covered by each slot. */
+    private static final long slotTicks = Stats.TimerTicks / 2;
+
+    private KThread[] slots = new KThread[numSlots];
+    /** The slot of the previous timer interrupt. */
+    private long lastSlot;
+    /** Scratch list of threads to wake, reused to avoid allocating. */
+    private ArrayList<KThread> dueList = new ArrayList<KThread>();
 }
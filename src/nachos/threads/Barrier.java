@@ -0,0 +1,147 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A cyclic <tt>Barrier</tt> makes a fixed number of threads wait for each
+ * other. Each thread calls <tt>await()</tt>; the last of them to arrive runs
+ * the barrier action, if any, and then releases all the others at once with
+ * a single <tt>KThread.readyAll()</tt>. The barrier is then ready for the
+ * next round.
+ *
+ * <p>
+ * Arriving is a constant-time update of a counter made with interrupts
+ * disabled, since only one thread runs at a time.
+ */
+public class Barrier {
+    /**
+     * Allocate a new barrier with no action.
+     *
+     * @param	parties	the number of threads that must arrive in each
+     *			round. Must be positive.
+     */
+    public Barrier(int parties) {
+	this(parties, null);
+    }
+
+    /**
+     * Allocate a new barrier.
+     *
+     * @param	parties	the number of threads that must arrive in each
+     *			round. Must be positive.
+     * @param	action	run by the last thread to arrive in each round,
+     *			before the others are released, or <tt>null</tt>. It
+     *			runs with interrupts disabled, and must not block.
+     */
+    public Barrier(int parties, Runnable action) {
+	Lib.assertTrue(parties > 0);
+
+	this.parties = parties;
+	this.action = action;
+    }
+
+    /**
+     * Wait until <i>parties</i> threads have called <tt>await()</tt> in this
+     * round.
+     *
+     * @return	the number of threads that arrived after this one in this
+     *		round; 0 for the last thread to arrive.
+     */
+    public int await() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int remaining = parties - ++arrived;
+
+	if (remaining > 0) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+	else {
+	    if (action != null)
+		action.run();
+
+	    arrived = 0;
+	    round++;
+	    KThread.readyAll(waitQueue);
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return remaining;
+    }
+
+    /**
+     * Return the number of rounds completed.
+     *
+     * @return	the number of times every party has arrived.
+     */
+    public int getRound() {
+	return round;
+    }
+
+    /**
+     * Return the number of threads waiting in the current round.
+     *
+     * @return	the number of threads waiting.
+     */
+    public int getWaiting() {
+	return arrived;
+    }
+
+    private static class Worker implements Runnable {
+	Worker(Barrier barrier, int[] progress, int id) {
+	    this.barrier = barrier;
+	    this.progress = progress;
+	    this.id = id;
+	}
+
+	public void run() {
+	    for (int i=0; i<5; i++) {
+		progress[id] = i;
+		barrier.await();
+		// nobody passes a barrier before everyone reached it
+		for (int j=0; j<progress.length; j++)
+		    Lib.assertTrue(progress[j] >= i);
+	    }
+	}
+
+	private Barrier barrier;
+	private int[] progress;
+	private int id;
+    }
+
+    /**
+     * Test that this module is working, together with
+     * <tt>CountDownLatch</tt>.
+     */
+    public static void selfTest() {
+	final int n = 4;
+	final CountDownLatch done = new CountDownLatch(n);
+	Barrier barrier = new Barrier(n, new Runnable() {
+		public void run() {
+		    Lib.assertTrue(done.getCount() == n);
+		}
+	    });
+	int[] progress = new int[n];
+
+	for (int i=0; i<n; i++) {
+	    final Runnable worker = new Worker(barrier, progress, i);
+	    new KThread(new Runnable() {
+		    public void run() {
+			worker.run();
+			done.countDown();
+		    }
+		}).setName("barrier " + i).fork();
+	}
+
+	done.await();
+	Lib.assertTrue(barrier.getRound() == 5 && barrier.getWaiting() == 0);
+    }
+
+    private int parties;
+    private Runnable action;
+    private int arrived = 0;
+    private int round = 0;
+    private ThreadQueue waitQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
@@ -0,0 +1,264 @@
+package nachos.threads;
+
+import java.util.Collection;
+import nachos.machine.*;
+
+/**
+ * A synchronized queue with a fixed capacity, for any number of producers
+ * and consumers.
+ *
+ * <p>
+ * Unlike <tt>SynchList</tt>, the queue cannot grow without bound: its
+ * elements are kept in a ring buffer allocated once, and <tt>add()</tt>
+ * blocks while the queue is full. Producers waiting for space and consumers
+ * waiting for elements wait in separate thread queues, so adding wakes only
+ * a consumer and removing wakes only a producer. Consumers can also take
+ * everything queued at once with <tt>drainTo()</tt>, or give up waiting
+ * after a timeout with <tt>poll()</tt>.
+ *
+ * <p>
+ * The queue keeps its high-water mark, the largest number of elements it has
+ * held at once, to help choose capacities.
+ */
+public class BoundedSynchList {
+    /**
+     * Allocate a new bounded synchronized queue.
+     *
+     * @param	capacity	the most elements the queue can hold. Must be
+     *				positive.
+     */
+    public BoundedSynchList(int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	elements = new Object[capacity];
+    }
+
+    /**
+     * Add the specified object to the end of the queue, blocking until there
+     * is room if necessary. If another thread is waiting for an element, it
+     * is woken up.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     */
+    public void add(Object o) {
+	Lib.assertTrue(o != null);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (count == elements.length) {
+	    notFull.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+	put(o);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Add the specified object to the end of the queue if there is room,
+     * without blocking.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     * @return	<tt>true</tt> if the object was added, or <tt>false</tt> if
+     *		the queue was full.
+     */
+    public boolean offer(Object o) {
+	Lib.assertTrue(o != null);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	boolean added = (count < elements.length);
+	if (added)
+	    put(o);
+
+	Machine.interrupt().restore(intStatus);
+
+	return added;
+    }
+
+    /**
+     * Remove an object from the front of the queue, blocking until the queue
+     * is non-empty if necessary.
+     *
+     * @return	the element removed from the front of the queue.
+     */
+    public Object removeFirst() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (count == 0) {
+	    notEmpty.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+	Object o = take();
+
+	Machine.interrupt().restore(intStatus);
+
+	return o;
+    }
+
+    /**
+     * Remove an object from the front of the queue, without blocking.
+     *
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the queue was empty.
+     */
+    public Object poll() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Object o = (count > 0) ? take() : null;
+
+	Machine.interrupt().restore(intStatus);
+
+	return o;
+    }
+
+    /**
+     * Remove an object from the front of the queue, waiting at most
+     * <i>timeoutTicks</i> for the queue to become non-empty.
+     *
+     * @param	timeoutTicks	the most clock ticks to wait.
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the queue was still empty after the timeout.
+     */
+    public Object poll(long timeoutTicks) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	long deadline = Machine.timer().getTime() + timeoutTicks;
+
+	while (count == 0) {
+	    long remaining = deadline - Machine.timer().getTime();
+	    if (remaining <= 0)
+		break;
+
+	    notEmpty.waitForAccess(KThread.currentThread());
+	    if (ThreadedKernel.alarm.sleepOn(notEmpty, remaining))
+		break;
+	}
+	Object o = (count > 0) ? take() : null;
+
+	Machine.interrupt().restore(intStatus);
+
+	return o;
+    }
+
+    /**
+     * Remove up to <i>max</i> objects from the front of the queue, in order,
+     * without blocking, and add them to the specified collection.
+     *
+     * @param	c	the collection to add the elements to.
+     * @param	max	the most elements to remove.
+     * @return	the number of elements removed.
+     */
+    public int drainTo(Collection<Object> c, int max) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int amount = Math.min(max, count);
+	for (int i=0; i<amount; i++)
+	    c.add(take());
+
+	Machine.interrupt().restore(intStatus);
+
+	return amount;
+    }
+
+    /**
+     * Return the number of elements in the queue.
+     *
+     * @return	the number of elements in the queue.
+     */
+    public int size() {
+	return count;
+    }
+
+    /**
+     * Return the most elements the queue can hold.
+     *
+     * @return	the capacity of the queue.
+     */
+    public int capacity() {
+	return elements.length;
+    }
+
+    /**
+     * Return the largest number of elements the queue has held at once.
+     *
+     * @return	the high-water mark.
+     */
+    public int getHighWater() {
+	return highWater;
+    }
+
+    /**
+     * Add an element to the tail of the ring, and wake a waiting consumer.
+     */
+    private void put(Object o) {
+	elements[(head + count) % elements.length] = o;
+	count++;
+	highWater = Math.max(highWater, count);
+
+	KThread thread = notEmpty.nextThread();
+	if (thread != null)
+	    thread.ready();
+    }
+
+    /**
+     * Take the element at the head of the ring, and wake a waiting producer.
+     */
+    private Object take() {
+	Object o = elements[head];
+	elements[head] = null;
+	head = (head+1) % elements.length;
+	count--;
+
+	KThread thread = notFull.nextThread();
+	if (thread != null)
+	    thread.ready();
+
+	return o;
+    }
+
+    private static class PingTest implements Runnable {
+	PingTest(BoundedSynchList ping, BoundedSynchList pong) {
+	    this.ping = ping;
+	    this.pong = pong;
+	}
+
+	public void run() {
+	    for (int i=0; i<10; i++)
+		pong.add(ping.removeFirst());
+	}
+
+	private BoundedSynchList ping;
+	private BoundedSynchList pong;
+    }
+
+    /**
+     * Test that this module is working.
+     */
+    public static void selfTest() {
+	BoundedSynchList ping = new BoundedSynchList(1);
+	BoundedSynchList pong = new BoundedSynchList(1);
+
+	new KThread(new PingTest(ping, pong)).setName("ping").fork();
+
+	for (int i=0; i<10; i++) {
+	    Integer o = new Integer(i);
+	    ping.add(o);
+	    Lib.assertTrue(pong.removeFirst() == o);
+	}
+
+	Lib.assertTrue(pong.poll(1000) == null);
+	Lib.assertTrue(pong.offer(ping) && !pong.offer(pong));
+	Lib.assertTrue(pong.poll(1000) == ping);
+	Lib.assertTrue(pong.getHighWater() == 1);
+    }
+
+    private Object[] elements;
+    private int head = 0, count = 0;
+    private int highWater = 0;
+
+    private ThreadQueue notFull =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+    private ThreadQueue notEmpty =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
@@ -0,0 +1,375 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A bounded channel of 32-bit words, for moving many words between threads
+ * per context switch.
+ *
+ * <p>
+ * Words are kept in a ring buffer of <tt>int</tt>s, so sending and receiving
+ * allocate nothing. A sender copies its words into the buffer, blocking while
+ * the buffer is full; a receiver takes as many words as are buffered, up to
+ * the size of its array, blocking only while the buffer is empty. Each
+ * <tt>send()</tt> is atomic with respect to other senders: the words of one
+ * batch are never interleaved with another's.
+ *
+ * <p>
+ * A channel of capacity zero is a rendezvous, like <tt>Communicator</tt>:
+ * <tt>send()</tt> does not return until receivers have taken every word it
+ * sent. The words are still staged in a small internal buffer, so a batch
+ * moves a buffer at a time rather than a word at a time.
+ *
+ * <p>
+ * Senders and receivers wait in thread queues from the scheduler.
+ */
+public class Channel {
+    /**
+     * Allocate a new channel.
+     *
+     * @param	capacity	the number of words the channel can buffer, or
+     *				0 for a rendezvous channel.
+     */
+    public Channel(int capacity) {
+	Lib.assertTrue(capacity >= 0);
+
+	rendezvous = (capacity == 0);
+	buffer = new int[rendezvous ? rendezvousBufferSize : capacity];
+    }
+
+    /**
+     * Send one word, blocking while the channel is full, or in rendezvous
+     * mode until a receiver has taken it.
+     *
+     * @param	word	the word to send.
+     */
+    public void send(int word) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	acquireSender();
+	wordBuffer[0] = word;
+	transfer(wordBuffer, 0, 1);
+	releaseSender();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Send a batch of words, blocking until all of them are buffered, or in
+     * rendezvous mode until receivers have taken all of them.
+     *
+     * @param	words	the array holding the words to send.
+     * @param	offset	the index of the first word to send.
+     * @param	length	the number of words to send.
+     */
+    public void send(int[] words, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length >= 0 &&
+		       offset+length <= words.length);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	acquireSender();
+	transfer(words, offset, length);
+	releaseSender();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Send as many words as can be sent without blocking. In rendezvous mode,
+     * words are only sent to receivers that are already waiting.
+     *
+     * @param	words	the array holding the words to send.
+     * @param	offset	the index of the first word to send.
+     * @param	length	the number of words to send.
+     * @return	the number of words sent.
+     */
+    public int trySend(int[] words, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length >= 0 &&
+		       offset+length <= words.length);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	int amount = 0;
+	if (sender == null && (!rendezvous || waitingReceivers > 0)) {
+	    if (rendezvous)
+		length = Math.min(length, waitingReceivers);
+
+	    amount = put(words, offset, length);
+	    if (amount > 0)
+		wakeReceiver();
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return amount;
+    }
+
+    /**
+     * Receive one word, blocking until one is available.
+     *
+     * @return	the word received.
+     */
+    public int receive() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	awaitWords();
+
+	int word = buffer[head];
+	head = (head+1) % buffer.length;
+	count--;
+
+	finishReceive();
+
+	Machine.interrupt().restore(intStatus);
+
+	return word;
+    }
+
+    /**
+     * Receive as many words as are available, up to the size of the array,
+     * blocking until at least one is available.
+     *
+     * @param	buf	the array to receive into.
+     * @return	the number of words received.
+     */
+    public int receive(int[] buf) {
+	return receive(buf, 0, buf.length);
+    }
+
+    /**
+     * Receive as many words as are available, up to <i>length</i>, blocking
+     * until at least one is available.
+     *
+     * @param	buf	the array to receive into.
+     * @param	offset	the index of the first word to store.
+     * @param	length	the most words to receive. Must be positive.
+     * @return	the number of words received.
+     */
+    public int receive(int[] buf, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length > 0 &&
+		       offset+length <= buf.length);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	awaitWords();
+	int amount = take(buf, offset, length);
+	finishReceive();
+
+	Machine.interrupt().restore(intStatus);
+
+	return amount;
+    }
+
+    /**
+     * Receive as many words as are available, up to <i>length</i>, without
+     * blocking.
+     *
+     * @param	buf	the array to receive into.
+     * @param	offset	the index of the first word to store.
+     * @param	length	the most words to receive.
+     * @return	the number of words received, which may be 0.
+     */
+    public int tryReceive(int[] buf, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length >= 0 &&
+		       offset+length <= buf.length);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	int amount = 0;
+	if (count > 0) {
+	    amount = take(buf, offset, length);
+	    finishReceive();
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return amount;
+    }
+
+    /**
+     * Return the number of words buffered in this channel.
+     *
+     * @return	the number of words buffered.
+     */
+    public int size() {
+	return count;
+    }
+
+    /**
+     * Wait until no other thread is in the middle of sending a batch, then
+     * become the sender.
+     */
+    private void acquireSender() {
+	KThread thread = KThread.currentThread();
+
+	if (sender != null) {
+	    sendQueue.waitForAccess(thread);
+	    KThread.sleep();
+	}
+	else {
+	    sender = thread;
+	}
+
+	Lib.assertTrue(sender == thread);
+    }
+
+    /**
+     * Hand the sender role to the next waiting sender.
+     */
+    private void releaseSender() {
+	if ((sender = sendQueue.nextThread()) != null)
+	    sender.ready();
+    }
+
+    /**
+     * Copy a whole batch into the buffer, sleeping whenever it is full, and
+     * in rendezvous mode until it has been emptied.
+     */
+    private void transfer(int[] words, int offset, int length) {
+	while (true) {
+	    int amount = put(words, offset, length);
+	    offset += amount;
+	    length -= amount;
+
+	    if (amount > 0)
+		wakeReceiver();
+
+	    if (length == 0 && (!rendezvous || count == 0))
+		break;
+
+	    waitingForDrain = (length == 0);
+	    blockedSender = sender;
+	    KThread.sleep();
+	}
+    }
+
+    /**
+     * Sleep until there is at least one word in the buffer.
+     */
+    private void awaitWords() {
+	while (count == 0) {
+	    waitingReceivers++;
+	    receiveQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	    waitingReceivers--;
+	}
+    }
+
+    /**
+     * After words have been taken from the buffer, let a blocked sender use
+     * the space, and pass any words left over to the next receiver.
+     */
+    private void finishReceive() {
+	if (blockedSender != null && (!waitingForDrain || count == 0)) {
+	    blockedSender.ready();
+	    blockedSender = null;
+	}
+
+	if (count > 0)
+	    wakeReceiver();
+    }
+
+    private void wakeReceiver() {
+	KThread thread = receiveQueue.nextThread();
+	if (thread != null)
+	    thread.ready();
+    }
+
+    /**
+     * Copy as many words as fit into the buffer.
+     */
+    private int put(int[] words, int offset, int length) {
+	int amount = Math.min(length, buffer.length - count);
+
+	int tail = (head + count) % buffer.length;
+	int first = Math.min(amount, buffer.length - tail);
+	System.arraycopy(words, offset, buffer, tail, first);
+	System.arraycopy(words, offset+first, buffer, 0, amount-first);
+
+	count += amount;
+	return amount;
+    }
+
+    /**
+     * Copy as many words as are buffered out of the buffer.
+     */
+    private int take(int[] buf, int offset, int length) {
+	int amount = Math.min(length, count);
+
+	int first = Math.min(amount, buffer.length - head);
+	System.arraycopy(buffer, head, buf, offset, first);
+	System.arraycopy(buffer, 0, buf, offset+first, amount-first);
+
+	head = (head + amount) % buffer.length;
+	count -= amount;
+	return amount;
+    }
+
+    private static class Producer implements Runnable {
+	Producer(Channel channel, int words) {
+	    this.channel = channel;
+	    this.words = words;
+	}
+
+	public void run() {
+	    int[] batch = new int[7];
+	    for (int next=0; next<words; ) {
+		int length = Math.min(batch.length, words-next);
+		for (int i=0; i<length; i++)
+		    batch[i] = next++;
+		channel.send(batch, 0, length);
+	    }
+	}
+
+	private Channel channel;
+	private int words;
+    }
+
+    /**
+     * Test that this module is working.
+     */
+    public static void selfTest() {
+	int[] capacities = { 0, 1, 5, 64 };
+
+	for (int c=0; c<capacities.length; c++) {
+	    Channel channel = new Channel(capacities[c]);
+	    new KThread(new Producer(channel, 100)).setName("producer").fork();
+
+	    int[] buf = new int[3];
+	    int next = 0;
+	    while (next < 90) {
+		int amount = channel.receive(buf);
+		Lib.assertTrue(amount > 0 && amount <= buf.length);
+		for (int i=0; i<amount; i++)
+		    Lib.assertTrue(buf[i] == next++);
+	    }
+	    while (next < 100)
+		Lib.assertTrue(channel.receive() == next++);
+
+	    Lib.assertTrue(channel.tryReceive(buf, 0, buf.length) == 0);
+	}
+    }
+
+    /** The staging buffer size of a rendezvous channel. */
+    private static final int rendezvousBufferSize = 64;
+
+    private boolean rendezvous;
+    private int[] buffer;
+    private int head = 0, count = 0;
+
+    /** The thread sending a batch, or <tt>null</tt>. */
+    private KThread sender = null;
+    /** The sender, if it is sleeping until receivers take words. */
+    private KThread blockedSender = null;
+    /** True if the blocked sender only waits for the buffer to empty. */
+    private boolean waitingForDrain = false;
+    /** Holds the single word being sent by <tt>send(int)</tt>. */
+    private int[] wordBuffer = new int[1];
+    private int waitingReceivers = 0;
+
+    private ThreadQueue sendQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+    private ThreadQueue receiveQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
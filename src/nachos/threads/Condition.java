@@ -105,8 +105,12 @@ public class Condition {
     public void wakeAll() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
+	boolean intStatus = Machine.interrupt().disable();
+
 	while (!waitQueue.isEmpty())
 	    wake();
+
+	Machine.interrupt().restore(intStatus);
     }
 
     private Lock conditionLock;
@@ -2,14 +2,16 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.LinkedList;
-
 /**
  * An implementation of condition variables that disables interrupt(s) for
  * synchronization.
  *
  * <p>
- * You must implement this.
+ * Sleeping threads wait in a thread queue from the scheduler, so they are
+ * woken in the order the scheduler chooses, and the queue links them through
+ * the threads themselves where the scheduler supports it, so sleeping
+ * allocates nothing. <tt>wakeAll()</tt> readies every sleeping thread in a
+ * single critical section.
  *
  * @see	nachos.threads.Condition
  */
@@ -22,14 +24,25 @@ public class Condition2 {
      *				lock whenever it uses <tt>sleep()</tt>,
      *				<tt>wake()</tt>, or <tt>wakeAll()</tt>.
      */
-	
-	private Lock conditionLock;
-	private LinkedList<KThread> waitQueue; //used for a queue
-	
-    public Condition2(Lock conditionLock)
-    {
-		waitQueue = new LinkedList<KThread>();
-    	this.conditionLock = conditionLock;
+    public Condition2(Lock conditionLock) {
+	this.conditionLock = conditionLock;
+    }
+
+    /**
+     * Set the name this condition variable is reported under by the
+     * contention profiler. Does nothing if it is not being profiled.
+     *
+     * @param	name	the name to give this condition variable.
+     * @return	this condition variable.
+     */
+    public Condition2 setName(String name) {
+	if (profile != null) {
+	    boolean intStatus = Machine.interrupt().disable();
+	    profile.setName(name);
+	    Machine.interrupt().restore(intStatus);
+	}
+
+	return this;
     }
 
     /**
@@ -38,50 +51,92 @@ public class Condition2 {
      * current thread must hold the associated lock. The thread will
      * automatically re-acquire the lock before <tt>sleep()</tt> returns.
      */
-    public void sleep()
-    {
-    	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
-    	
-    	//add the current process to the linked list
-    	conditionLock.release();
-    	
-    	boolean status = Machine.interrupt().disable();
-    	waitQueue.add(KThread.currentThread()); //add the thread to the queue, it will be waiting to be woken up
-		
-		//sleep, waiting for wake() to be called
-		KThread.sleep();
-		
-		Machine.interrupt().restore(status);
-
-		conditionLock.acquire(); //get the lock back
+    public void sleep() {
+	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	long startTime = (profile != null) ? profile.start() : 0;
+
+	conditionLock.release();
+
+	waitQueue.waitForAccess(KThread.currentThread());
+	KThread.sleep();
+
+	if (profile != null)
+	    profile.acquired(startTime, true);
+
+	Machine.interrupt().restore(intStatus);
+
+	conditionLock.acquire();
+    }
+
+    /**
+     * Like <tt>sleep()</tt>, but give up waiting after <i>ticks</i> clock
+     * ticks. The thread re-acquires the lock before returning either way.
+     *
+     * @param	ticks	the most clock ticks to sleep.
+     * @return	<tt>true</tt> if the thread was woken by <tt>wake()</tt> or
+     *		<tt>wakeAll()</tt>, or <tt>false</tt> if the wait timed out.
+     */
+    public boolean sleepFor(long ticks) {
+	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	long startTime = (profile != null) ? profile.start() : 0;
+
+	conditionLock.release();
+
+	waitQueue.waitForAccess(KThread.currentThread());
+	boolean woken = !ThreadedKernel.alarm.sleepOn(waitQueue, ticks);
+
+	if (profile != null)
+	    profile.acquired(startTime, true);
+
+	Machine.interrupt().restore(intStatus);
+
+	conditionLock.acquire();
+
+	return woken;
     }
 
     /**
      * Wake up at most one thread sleeping on this condition variable. The
      * current thread must hold the associated lock.
      */
-    public void wake()
-    {
-    	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
-    	
-    	if (!waitQueue.isEmpty()) //if the queue is empty, there is nothing to wake
-    	{
-    		boolean status = Machine.interrupt().disable();
-    		KThread thisThread = waitQueue.removeFirst(); //get the first thread that fell asleep
-    		thisThread.ready(); //wake the first thread
-    		Machine.interrupt().restore(status);
-    	}
+    public void wake() {
+	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = waitQueue.nextThread();
+	if (thread != null) {
+	    thread.ready();
+	    if (profile != null)
+		profile.handedOff();
+	}
+
+	Machine.interrupt().restore(intStatus);
     }
 
     /**
      * Wake up all threads sleeping on this condition variable. The current
      * thread must hold the associated lock.
      */
-    public void wakeAll()
-    {
-    	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
-    	
-    	while (!waitQueue.isEmpty()) //simply call wake() for all sleeping threads
-    	    wake();
+    public void wakeAll() {
+	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	int count = KThread.readyAll(waitQueue);
+	if (profile != null)
+	    profile.handedOff(count);
+
+	Machine.interrupt().restore(intStatus);
     }
+
+    private Lock conditionLock;
+    private ThreadQueue waitQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+    private ContentionProfiler.Probe profile =
+	ContentionProfiler.probe(Condition2.class);
 }
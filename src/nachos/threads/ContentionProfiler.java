@@ -0,0 +1,267 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Measures how much threads wait on each <tt>Lock</tt>, <tt>Semaphore</tt> and
+ * <tt>Condition2</tt>.
+ *
+ * <p>
+ * Profiling is enabled by setting the <tt>nachos.conf</tt> key
+ * <tt>ThreadedKernel.profileContention</tt> to <tt>true</tt>. Every primitive
+ * created after that gets a <tt>Probe</tt>; primitives created while
+ * profiling is disabled get <tt>null</tt>, so the only cost left in their
+ * hot paths is a null check.
+ *
+ * <p>
+ * Primitives are grouped into sites, named by the kind of primitive and the
+ * method that allocated it, or by a name given with the primitive's
+ * <tt>setName()</tt>. For each site the profiler counts:
+ *
+ * <ul>
+ * <li>acquisitions: <tt>acquire()</tt>, <tt>P()</tt>, or <tt>sleep()</tt>;
+ * <li>contended acquisitions: those that had to wait (every
+ * <tt>sleep()</tt> waits);
+ * <li>wait ticks: total and maximum time from blocking to returning;
+ * <li>hold ticks: total and maximum time a lock was held, from the moment
+ * its holder received it until it released it;
+ * <li>handoffs: <tt>release()</tt>, <tt>V()</tt> or <tt>wake()</tt> calls
+ * that passed the primitive directly to a waiting thread.
+ * </ul>
+ *
+ * <p>
+ * <tt>ThreadedKernel.terminate()</tt> prints the report, sites sorted by
+ * total wait ticks, and <tt>print()</tt> can print it at any other time.
+ */
+public class ContentionProfiler {
+    private ContentionProfiler() {
+    }
+
+    /**
+     * Start profiling primitives created from now on.
+     */
+    public static void enable() {
+	enabled = true;
+    }
+
+    /**
+     * Test whether profiling is enabled.
+     *
+     * @return	<tt>true</tt> if new primitives are being profiled.
+     */
+    public static boolean isEnabled() {
+	return enabled;
+    }
+
+    /**
+     * Return a probe for a newly allocated primitive, or <tt>null</tt> if
+     * profiling is disabled. The site is named after the first caller outside
+     * the primitive's own class.
+     *
+     * @param	kind	the class of primitive.
+     * @return	the probe the primitive should report to, or <tt>null</tt>.
+     */
+    static Probe probe(Class<?> kind) {
+	if (!enabled)
+	    return null;
+
+	String name = allocationSite(kind);
+
+	boolean intStatus = Machine.interrupt().disable();
+	Probe probe = new Probe(kind);
+	probe.setName(name);
+	Machine.interrupt().restore(intStatus);
+
+	return probe;
+    }
+
+    /**
+     * Name the method that is allocating a primitive: the first caller
+     * outside the primitive's own class and this class, as
+     * <tt>class.method:line</tt>.
+     *
+     * @param	kind	the class of primitive being allocated.
+     * @return	the allocating method.
+     */
+    static String allocationSite(Class<?> kind) {
+	StackTraceElement[] stack = new Throwable().getStackTrace();
+	for (int i=0; i<stack.length; i++) {
+	    if (!stack[i].getClassName().equals(kind.getName()) &&
+		!stack[i].getClassName().equals(ContentionProfiler.class.getName())) {
+		return stack[i].getClassName() + "." + stack[i].getMethodName()
+		    + ":" + stack[i].getLineNumber();
+	    }
+	}
+
+	return "?";
+    }
+
+    /**
+     * Print the report for every site, sorted by total wait ticks. Does
+     * nothing if profiling was never enabled.
+     */
+    public static void print() {
+	if (!enabled)
+	    return;
+
+	boolean intStatus = Machine.interrupt().disable();
+	ArrayList<Site> sorted = new ArrayList<Site>(sites.values());
+	Machine.interrupt().restore(intStatus);
+
+	Collections.sort(sorted, new Comparator<Site>() {
+		public int compare(Site s1, Site s2) {
+		    if (s1.waitTicks != s2.waitTicks)
+			return (s1.waitTicks > s2.waitTicks) ? -1 : 1;
+		    return s1.name.compareTo(s2.name);
+		}
+	    });
+
+	System.out.println("Contention: " + sorted.size() + " sites");
+	for (Iterator<Site> i=sorted.iterator(); i.hasNext(); )
+	    System.out.println("    " + i.next());
+    }
+
+    /**
+     * Clear the counts of every site.
+     */
+    public static void reset() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	for (Iterator<Site> i=sites.values().iterator(); i.hasNext(); )
+	    i.next().reset();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the site with the specified kind and name, creating it if
+     * necessary.
+     */
+    private static Site site(Class<?> kind, String name) {
+	String key = kind.getSimpleName() + " " + name;
+
+	Site site = sites.get(key);
+	if (site == null) {
+	    site = new Site(key);
+	    sites.put(key, site);
+	}
+
+	return site;
+    }
+
+    /**
+     * The profiling state of a single primitive. All methods must be called
+     * with interrupts disabled.
+     */
+    static class Probe {
+	Probe(Class<?> kind) {
+	    this.kind = kind;
+	}
+
+	/**
+	 * Move this primitive to the site with the specified name.
+	 */
+	void setName(String name) {
+	    Site newSite = site(kind, name);
+	    if (site != null)
+		site.instances--;
+	    newSite.instances++;
+	    site = newSite;
+	}
+
+	/**
+	 * Note the start of an acquisition.
+	 *
+	 * @return	the time to pass to <tt>acquired()</tt>.
+	 */
+	long start() {
+	    return Machine.timer().getTime();
+	}
+
+	/**
+	 * Note that the current thread has acquired this primitive.
+	 *
+	 * @param	startTime	the value returned by <tt>start()</tt>.
+	 * @param	contended	<tt>true</tt> if the thread had to wait.
+	 */
+	void acquired(long startTime, boolean contended) {
+	    long time = Machine.timer().getTime();
+
+	    site.acquisitions++;
+	    if (contended) {
+		long wait = time - startTime;
+		site.contended++;
+		site.waitTicks += wait;
+		site.maxWaitTicks = Math.max(site.maxWaitTicks, wait);
+	    }
+
+	    heldSince = time;
+	}
+
+	/**
+	 * Note that the holder of this lock has released it.
+	 */
+	void released() {
+	    long hold = Machine.timer().getTime() - heldSince;
+	    site.holdTicks += hold;
+	    site.maxHoldTicks = Math.max(site.maxHoldTicks, hold);
+	}
+
+	/**
+	 * Note that this primitive was passed directly to a waiting thread.
+	 */
+	void handedOff() {
+	    handedOff(1);
+	}
+
+	/**
+	 * Note that this primitive was passed directly to the specified number
+	 * of waiting threads at once.
+	 */
+	void handedOff(int count) {
+	    site.handoffs += count;
+	}
+
+	private Class<?> kind;
+	private Site site = null;
+	private long heldSince;
+    }
+
+    /**
+     * The counts shared by every primitive allocated at one site.
+     */
+    private static class Site {
+	Site(String name) {
+	    this.name = name;
+	}
+
+	void reset() {
+	    acquisitions = contended = handoffs = 0;
+	    waitTicks = maxWaitTicks = holdTicks = maxHoldTicks = 0;
+	}
+
+	public String toString() {
+	    return name + ": instances " + instances
+		+ ", acquisitions " + acquisitions
+		+ ", contended " + contended
+		+ ", wait " + waitTicks + " (max " + maxWaitTicks + ")"
+		+ ", hold " + holdTicks + " (max " + maxHoldTicks + ")"
+		+ ", handoffs " + handoffs;
+	}
+
+	String name;
+	int instances = 0;
+	long acquisitions = 0, contended = 0, handoffs = 0;
+	long waitTicks = 0, maxWaitTicks = 0;
+	long holdTicks = 0, maxHoldTicks = 0;
+    }
+
+    private static boolean enabled = false;
+    private static HashMap<String, Site> sites = new HashMap<String, Site>();
+}
@@ -0,0 +1,90 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>CountDownLatch</tt> lets threads wait until a number of events have
+ * happened:
+ *
+ * <ul>
+ * <li><tt>countDown()</tt>: record one event. The count never goes below 0.
+ * <li><tt>await()</tt>: wait until the count reaches 0.
+ * </ul>
+ *
+ * <p>
+ * Once the count reaches 0 the latch stays open, and <tt>await()</tt> returns
+ * immediately. Every waiting thread is released at once, with a single
+ * <tt>KThread.readyAll()</tt>.
+ */
+public class CountDownLatch {
+    /**
+     * Allocate a new latch.
+     *
+     * @param	count	the number of events to wait for.
+     */
+    public CountDownLatch(int count) {
+	Lib.assertTrue(count >= 0);
+
+	this.count = count;
+    }
+
+    /**
+     * Record one event, and if it was the last, release every waiting
+     * thread.
+     */
+    public void countDown() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (count > 0 && --count == 0)
+	    KThread.readyAll(waitQueue);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait until the count reaches 0.
+     */
+    public void await() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (count > 0) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait at most <i>ticks</i> clock ticks for the count to reach 0.
+     *
+     * @param	ticks	the most clock ticks to wait.
+     * @return	<tt>true</tt> if the count reached 0.
+     */
+    public boolean await(long ticks) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (count > 0) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    ThreadedKernel.alarm.sleepOn(waitQueue, ticks);
+	}
+	boolean open = (count == 0);
+
+	Machine.interrupt().restore(intStatus);
+
+	return open;
+    }
+
+    /**
+     * Return the number of events still to happen.
+     *
+     * @return	the current count.
+     */
+    public int getCount() {
+	return count;
+    }
+
+    private int count;
+    private ThreadQueue waitQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
@@ -0,0 +1,124 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Detects deadlocks among threads blocked in <tt>Lock.acquire()</tt> and
+ * <tt>KThread.join()</tt>.
+ *
+ * <p>
+ * Detection is enabled by setting the <tt>nachos.conf</tt> key
+ * <tt>ThreadedKernel.deadlockDetector</tt> to <tt>report</tt> or
+ * <tt>abort</tt>. Each blocked thread then records what it is waiting for in
+ * the wait-for graph: a thread waiting for a lock waits for the lock's
+ * holder, and a thread waiting in <tt>join()</tt> waits for the thread it is
+ * joining. A thread waits for at most one thing, so the graph is a set of
+ * chains, and since it is checked every time a thread blocks, it can only
+ * gain a cycle through the thread that is blocking. Checking therefore just
+ * follows the chain from the new edge, and costs one step per blocked thread
+ * on it. A chain may also lead into a cycle that was already reported; the
+ * walk gives up once it has taken more steps than there are threads.
+ *
+ * <p>
+ * A cycle is printed with the names of the threads and of the locks involved
+ * (their <tt>setName()</tt> names, or where they were allocated). In
+ * <tt>abort</tt> mode the run is then stopped by a failed assertion, instead
+ * of leaving the idle thread spinning forever.
+ *
+ * <p>
+ * Waits on semaphores and condition variables have no owner, and are not
+ * tracked.
+ */
+public class DeadlockDetector {
+    private DeadlockDetector() {
+    }
+
+    /**
+     * Start detecting deadlocks.
+     *
+     * @param	abort	<tt>true</tt> to stop the run when a deadlock is
+     *			found, <tt>false</tt> to only report it.
+     */
+    public static void enable(boolean abort) {
+	enabled = true;
+	DeadlockDetector.abort = abort;
+    }
+
+    /**
+     * Test whether deadlocks are being detected.
+     *
+     * @return	<tt>true</tt> if deadlocks are being detected.
+     */
+    public static boolean isEnabled() {
+	return enabled;
+    }
+
+    /**
+     * Record that a thread is about to block waiting for a lock or for
+     * another thread to finish, and check whether that closes a cycle.
+     * Interrupts must be disabled.
+     *
+     * @param	thread		the thread about to block.
+     * @param	resource	the <tt>Lock</tt> or <tt>KThread</tt> it waits
+     *				for.
+     */
+    static void waitFor(KThread thread, Object resource) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	thread.blockedOn = resource;
+
+	// a chain longer than the number of threads ever created has run into
+	// a cycle that does not go through this thread, such as one already
+	// reported; it cannot close a new one, so stop walking it
+	int steps = KThread.getNumCreated();
+
+	KThread owner = ownerOf(resource);
+	while (owner != null && owner != thread && owner.blockedOn != null
+	       && steps-- > 0)
+	    owner = ownerOf(owner.blockedOn);
+
+	if (owner == thread)
+	    deadlock(thread);
+    }
+
+    /**
+     * Return the thread that must make progress before a thread waiting for
+     * the specified resource can.
+     */
+    private static KThread ownerOf(Object resource) {
+	if (resource instanceof Lock)
+	    return ((Lock) resource).getHolder();
+	else
+	    return (KThread) resource;
+    }
+
+    /**
+     * Report the cycle through the specified thread, and abort if asked to.
+     */
+    private static void deadlock(KThread thread) {
+	StringBuffer cycle = new StringBuffer("Deadlock: ");
+
+	KThread waiter = thread;
+	do {
+	    Object resource = waiter.blockedOn;
+
+	    cycle.append(waiter.toString());
+	    if (resource instanceof Lock)
+		cycle.append(" waits for lock " + resource + ", held by ");
+	    else
+		cycle.append(" joins ");
+
+	    waiter = ownerOf(resource);
+	} while (waiter != thread);
+
+	cycle.append(thread.toString());
+
+	System.out.println(cycle);
+
+	if (abort)
+	    Lib.assertNotReached("deadlock detected");
+    }
+
+    private static boolean enabled = false;
+    private static boolean abort = false;
+}
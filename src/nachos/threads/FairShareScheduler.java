@@ -0,0 +1,461 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+/**
+ * A scheduler that shares the processor fairly between groups of threads,
+ * and then fairly between the threads inside each group.
+ *
+ * <p>
+ * Every thread belongs to exactly one group. Threads are placed in a group
+ * with <tt>setGroup()</tt>; a <tt>UThread</tt> is placed in the group of its
+ * <tt>UserProcess</tt>, and all other threads share a single default group.
+ * A process that forks many threads therefore receives no more of the
+ * processor than a process with one thread.
+ *
+ * <p>
+ * The scheduler charges the simulated time that passes between scheduling
+ * events to the current thread and to its group. Past usage decays
+ * exponentially, halving every <tt>FairShareScheduler.decayTicks</tt> ticks.
+ * The next thread to receive access is the least recently charged thread of
+ * the least recently charged group that has a thread waiting; ties are broken
+ * first-come first-serve.
+ *
+ * <p>
+ * Each queue keeps its waiting groups, and each group its waiting threads, in
+ * a balanced tree ordered by decayed usage, so choosing the next thread costs
+ * <i>O(log groups + log threads)</i>. Decay is applied lazily: usage is
+ * stored as <i>log2(usage) + time/decayTicks</i>, which does not change
+ * while a thread is not being charged and orders threads the same way as
+ * their decayed usage at any common point in time.
+ */
+public class FairShareScheduler extends Scheduler {
+    /**
+     * Allocate a new fair-share scheduler.
+     */
+    public FairShareScheduler() {
+	decayTicks = Config.getInteger("FairShareScheduler.decayTicks",
+				       defaultDecayTicks);
+	Lib.assertTrue(decayTicks > 0);
+    }
+
+    /**
+     * Allocate a new fair-share thread queue.
+     *
+     * @param	transferPriority	ignored. Fair-share schedulers do not
+     *					donate usage.
+     * @return	a new fair-share thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new FairShareQueue();
+    }
+
+    public void setGroup(KThread thread, Object group) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	ThreadState state = getThreadState(thread);
+	Lib.assertTrue(state.waiting == null);
+
+	if (group == null) {
+	    state.group = defaultGroup;
+	    return;
+	}
+
+	Group g = groups.get(group);
+	if (g == null) {
+	    g = new Group(group.toString());
+	    groups.put(group, g);
+	}
+	state.group = g;
+    }
+
+    public void charge(KThread thread, long ticks, long now) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	if (ticks > 0)
+	    getThreadState(thread).charge(ticks, now);
+    }
+
+    /**
+     * Return the decayed number of ticks charged to the specified thread.
+     * Must be called with interrupts disabled.
+     *
+     * @param	thread	the thread whose usage to return.
+     * @return	the thread's decayed usage, in ticks.
+     */
+    public long getUsage(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return decayedUsage(getThreadState(thread).key);
+    }
+
+    /**
+     * Return the decayed number of ticks charged to the group of the
+     * specified thread. Must be called with interrupts disabled.
+     *
+     * @param	thread	a thread in the group whose usage to return.
+     * @return	the group's decayed usage, in ticks.
+     */
+    public long getGroupUsage(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return decayedUsage(getThreadState(thread).group.key);
+    }
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new ThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * Charge the ticks that have passed since the last scheduling event to
+     * the current thread and its group.
+     */
+    private void chargeCurrentThread() {
+	long now = Machine.timer().getTime();
+	long ticks = now - lastCharge;
+	lastCharge = now;
+
+	if (ticks > 0)
+	    getThreadState(KThread.currentThread()).charge(ticks, now);
+    }
+
+    /**
+     * Add <i>ticks</i> of usage at time <i>now</i> to a usage key.
+     */
+    private double charge(double key, long ticks, long now) {
+	double time = (double) now / decayTicks;
+	double usage = 0;
+	if (key != Double.NEGATIVE_INFINITY)
+	    usage = Math.pow(2, key - time);
+
+	return Math.log(usage + ticks) / Math.log(2) + time;
+    }
+
+    private long decayedUsage(double key) {
+	if (key == Double.NEGATIVE_INFINITY)
+	    return 0;
+
+	double time = (double) Machine.timer().getTime() / decayTicks;
+	return (long) Math.pow(2, key - time);
+    }
+
+    /**
+     * Orders groups and threads by usage key, breaking ties by the order in
+     * which they were created or queued.
+     */
+    private static int compare(double key1, long seq1, double key2, long seq2) {
+	if (key1 < key2)
+	    return -1;
+	else if (key1 > key2)
+	    return 1;
+	else if (seq1 < seq2)
+	    return -1;
+	else if (seq1 > seq2)
+	    return 1;
+	else
+	    return 0;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that gives access to the least-charged thread of
+     * the least-charged group.
+     */
+    protected class FairShareQueue extends ThreadQueue {
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    chargeCurrentThread();
+	    enqueue(getThreadState(thread));
+	}
+
+	public void waitForAccessAll(Collection<KThread> threads) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    chargeCurrentThread();
+	    for (Iterator<KThread> i=threads.iterator(); i.hasNext(); )
+		enqueue(getThreadState(i.next()));
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    chargeCurrentThread();
+
+	    if (groupQueue.isEmpty())
+		return null;
+
+	    QueueGroup entry = groupQueue.first();
+	    ThreadState state = entry.threads.pollFirst();
+	    state.waiting = null;
+
+	    if (entry.threads.isEmpty()) {
+		groupQueue.remove(entry);
+		entry.group.entries.remove(entry);
+	    }
+
+	    return state.thread;
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    Lib.assertTrue(groupQueue.isEmpty());
+	}
+
+	public boolean remove(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState state = getThreadState(thread);
+	    QueueGroup entry = state.waiting;
+	    if (entry == null || entry.queue != this)
+		return false;
+
+	    entry.threads.remove(state);
+	    state.waiting = null;
+
+	    if (entry.threads.isEmpty()) {
+		groupQueue.remove(entry);
+		entry.group.entries.remove(entry);
+	    }
+
+	    return true;
+	}
+
+	/**
+	 * Move all the threads on this queue to another queue. If the other
+	 * queue is also a fair-share queue, the threads are moved a group at a
+	 * time, keeping their order within each group: a group with no threads
+	 * already waiting on the other queue is moved whole, in
+	 * <i>O(log groups)</i> time.
+	 *
+	 * @param	queue	the queue the threads should now wait on.
+	 */
+	public void drainTo(ThreadQueue queue) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    if (!(queue instanceof FairShareQueue)) {
+		super.drainTo(queue);
+		return;
+	    }
+
+	    FairShareQueue target = (FairShareQueue) queue;
+	    if (target == this)
+		return;
+
+	    chargeCurrentThread();
+
+	    for (Iterator<QueueGroup> i=groupQueue.iterator(); i.hasNext(); ) {
+		QueueGroup entry = i.next();
+		QueueGroup targetEntry = entry.group.entryFor(target);
+
+		if (targetEntry == null) {
+		    entry.queue = target;
+		    target.groupQueue.add(entry);
+		    continue;
+		}
+
+		for (Iterator<ThreadState> j=entry.threads.iterator();
+		     j.hasNext(); ) {
+		    ThreadState state = j.next();
+		    state.waiting = targetEntry;
+		    targetEntry.threads.add(state);
+		}
+		entry.group.entries.remove(entry);
+	    }
+
+	    groupQueue.clear();
+	}
+
+	/**
+	 * Remove all the threads on this queue, in the order
+	 * <tt>nextThread()</tt> would have returned them. No usage is charged
+	 * while draining, so each group gives up all its threads before the
+	 * next group.
+	 *
+	 * @param	threads	the collection to add the threads to.
+	 */
+	public void drainTo(Collection<KThread> threads) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    chargeCurrentThread();
+
+	    for (Iterator<QueueGroup> i=groupQueue.iterator(); i.hasNext(); ) {
+		QueueGroup entry = i.next();
+
+		for (Iterator<ThreadState> j=entry.threads.iterator();
+		     j.hasNext(); ) {
+		    ThreadState state = j.next();
+		    state.waiting = null;
+		    threads.add(state.thread);
+		}
+		entry.group.entries.remove(entry);
+	    }
+
+	    groupQueue.clear();
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (Iterator<QueueGroup> i=groupQueue.iterator(); i.hasNext(); ) {
+		QueueGroup entry = i.next();
+
+		System.out.print(entry.group.name + ": ");
+		for (Iterator<ThreadState> j=entry.threads.iterator();
+		     j.hasNext(); )
+		    System.out.print(j.next().thread + " ");
+	    }
+	}
+
+	private void enqueue(ThreadState state) {
+	    Lib.assertTrue(state.waiting == null);
+
+	    QueueGroup entry = state.group.entryFor(this);
+	    if (entry == null) {
+		entry = new QueueGroup(this, state.group);
+		state.group.entries.add(entry);
+		groupQueue.add(entry);
+	    }
+
+	    state.seq = numQueued++;
+	    state.waiting = entry;
+	    entry.threads.add(state);
+	}
+
+	/** The groups with a thread waiting on this queue. */
+	private TreeSet<QueueGroup> groupQueue =
+	    new TreeSet<QueueGroup>(new Comparator<QueueGroup>() {
+		    public int compare(QueueGroup e1, QueueGroup e2) {
+			return FairShareScheduler.compare(e1.group.key,
+							  e1.group.id,
+							  e2.group.key,
+							  e2.group.id);
+		    }
+		});
+    }
+
+    /**
+     * The threads of one group that are waiting on one queue.
+     */
+    private class QueueGroup {
+	QueueGroup(FairShareQueue queue, Group group) {
+	    this.queue = queue;
+	    this.group = group;
+	}
+
+	FairShareQueue queue;
+	Group group;
+	TreeSet<ThreadState> threads =
+	    new TreeSet<ThreadState>(new Comparator<ThreadState>() {
+		    public int compare(ThreadState s1, ThreadState s2) {
+			return FairShareScheduler.compare(s1.key, s1.seq,
+							  s2.key, s2.seq);
+		    }
+		});
+    }
+
+    /**
+     * A scheduling group, and its usage.
+     */
+    private class Group {
+	Group(String name) {
+	    this.name = name;
+	}
+
+	/**
+	 * Return this group's entry in the specified queue, or <tt>null</tt>
+	 * if none of its threads are waiting there. A group is rarely waiting
+	 * on more than a few queues at once.
+	 */
+	QueueGroup entryFor(FairShareQueue queue) {
+	    for (Iterator<QueueGroup> i=entries.iterator(); i.hasNext(); ) {
+		QueueGroup entry = i.next();
+		if (entry.queue == queue)
+		    return entry;
+	    }
+
+	    return null;
+	}
+
+	String name;
+	long id = numGroups++;
+	double key = Double.NEGATIVE_INFINITY;
+	LinkedList<QueueGroup> entries = new LinkedList<QueueGroup>();
+    }
+
+    /**
+     * The scheduling state of a thread: its group, its usage, and the queue
+     * it is waiting on, if any.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    protected class ThreadState {
+	/**
+	 * Allocate a new <tt>ThreadState</tt> object in the default group and
+	 * associate it with the specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public ThreadState(KThread thread) {
+	    this.thread = thread;
+	    this.group = defaultGroup;
+	}
+
+	/**
+	 * Charge <i>ticks</i> to this thread and its group, keeping every
+	 * queue this thread or its group is waiting on correctly ordered.
+	 */
+	void charge(long ticks, long now) {
+	    QueueGroup entry = waiting;
+	    if (entry != null)
+		entry.threads.remove(this);
+	    key = FairShareScheduler.this.charge(key, ticks, now);
+	    if (entry != null)
+		entry.threads.add(this);
+
+	    for (Iterator<QueueGroup> i=group.entries.iterator(); i.hasNext(); ) {
+		entry = i.next();
+		entry.queue.groupQueue.remove(entry);
+	    }
+	    group.key = FairShareScheduler.this.charge(group.key, ticks, now);
+	    for (Iterator<QueueGroup> i=group.entries.iterator(); i.hasNext(); ) {
+		entry = i.next();
+		entry.queue.groupQueue.add(entry);
+	    }
+	}
+
+	/** The thread with which this object is associated. */
+	protected KThread thread;
+
+	private Group group;
+	private double key = Double.NEGATIVE_INFINITY;
+	private long seq;
+	private QueueGroup waiting = null;
+    }
+
+    private int decayTicks;
+    private long lastCharge = 0;
+    private long numGroups = 0;
+    private long numQueued = 0;
+
+    private Group defaultGroup = new Group("default");
+    private WeakHashMap<Object, Group> groups = new WeakHashMap<Object, Group>();
+
+    private static final int defaultDecayTicks = 10 * Stats.TimerTicks;
+}
@@ -0,0 +1,301 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * The result of a computation that finishes later, usually in another
+ * thread started by <tt>KThread.submit()</tt>.
+ *
+ * <p>
+ * Threads can wait for one future with <tt>get()</tt>, for the first of
+ * several with <tt>joinAny()</tt>, or for all of them with
+ * <tt>joinAll()</tt>. Completion wakes every waiting thread at once, and runs
+ * any completion callbacks in the completing thread, so no thread is needed
+ * just to deliver a result.
+ *
+ * <p>
+ * If the computation throws an exception, the future still completes, with
+ * a <tt>null</tt> value; the exception is available from
+ * <tt>getException()</tt>.
+ *
+ * @param	<T>	the type of the result.
+ */
+public class KFuture<T> {
+    /**
+     * Allocate a new future, to be completed by <tt>complete()</tt>.
+     */
+    public KFuture() {
+    }
+
+    /**
+     * Something to do when a future completes.
+     *
+     * @param	<T>	the type of the future's result.
+     */
+    public interface Callback<T> {
+	/**
+	 * Called once the future has completed.
+	 *
+	 * @param	future	the completed future.
+	 */
+	public void completed(KFuture<T> future);
+    }
+
+    /**
+     * Complete this future with the specified value, waking every thread
+     * waiting for it and then running its callbacks in the current thread.
+     * A future may only be completed once.
+     *
+     * @param	value	the result.
+     */
+    public void complete(T value) {
+	finish(value, null);
+    }
+
+    /**
+     * Run a computation in the current thread, and complete this future with
+     * its result.
+     */
+    void run(Callable<T> task) {
+	T value = null;
+	Exception exception = null;
+
+	try {
+	    value = task.call();
+	}
+	catch (Exception e) {
+	    exception = e;
+	}
+
+	finish(value, exception);
+    }
+
+    private void finish(T value, Exception exception) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Lib.assertTrue(!done);
+
+	this.value = value;
+	this.exception = exception;
+	done = true;
+
+	KThread.readyAll(waitQueue);
+	for (int i=0; i<watchers.size(); i++)
+	    KThread.readyAll(watchers.get(i));
+
+	ArrayList<Callback<T>> toRun = callbacks;
+	callbacks = null;
+
+	Machine.interrupt().restore(intStatus);
+
+	if (toRun != null) {
+	    for (Iterator<Callback<T>> i=toRun.iterator(); i.hasNext(); )
+		i.next().completed(this);
+	}
+    }
+
+    /**
+     * Wait for this future to complete, and return its result.
+     *
+     * @return	the result, or <tt>null</tt> if the computation threw an
+     *		exception.
+     */
+    public T get() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (!done) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return value;
+    }
+
+    /**
+     * Wait at most <i>timeoutTicks</i> clock ticks for this future to
+     * complete, and return its result.
+     *
+     * @param	timeoutTicks	the most clock ticks to wait.
+     * @return	the result, or <tt>null</tt> if the future did not complete
+     *		in time or the computation threw an exception.
+     */
+    public T get(long timeoutTicks) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (!done) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    ThreadedKernel.alarm.sleepOn(waitQueue, timeoutTicks);
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return value;
+    }
+
+    /**
+     * Test whether this future has completed.
+     *
+     * @return	<tt>true</tt> if this future has completed.
+     */
+    public boolean isDone() {
+	return done;
+    }
+
+    /**
+     * Return the exception thrown by the computation, if any.
+     *
+     * @return	the exception, or <tt>null</tt> if the computation has not
+     *		thrown one.
+     */
+    public Exception getException() {
+	return exception;
+    }
+
+    /**
+     * Arrange for <i>callback</i> to be called when this future completes.
+     * If it has already completed, the callback is called immediately in the
+     * current thread; otherwise, it is called in the thread that completes
+     * the future.
+     *
+     * @param	callback	the callback to call.
+     */
+    public void onComplete(Callback<T> callback) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	boolean runNow = done;
+	if (!runNow) {
+	    if (callbacks == null)
+		callbacks = new ArrayList<Callback<T>>();
+	    callbacks.add(callback);
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	if (runNow)
+	    callback.completed(this);
+    }
+
+    /**
+     * Wait until at least one of the specified futures has completed.
+     *
+     * @param	futures	the futures to wait for. Must not be empty.
+     * @return	the index in <i>futures</i> of a completed future.
+     */
+    public static int joinAny(List<? extends KFuture<?>> futures) {
+	Lib.assertTrue(!futures.isEmpty());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	int index = firstDone(futures);
+	if (index == -1) {
+	    // wait on a private queue that every future will wake
+	    ThreadQueue queue = ThreadedKernel.scheduler.newThreadQueue(false);
+	    for (Iterator<? extends KFuture<?>> i=futures.iterator(); i.hasNext(); )
+		i.next().addWatcher(queue);
+
+	    queue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+
+	    for (Iterator<? extends KFuture<?>> i=futures.iterator(); i.hasNext(); )
+		i.next().removeWatcher(queue);
+
+	    index = firstDone(futures);
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return index;
+    }
+
+    /**
+     * Wait until all of the specified futures have completed.
+     *
+     * @param	futures	the futures to wait for.
+     */
+    public static void joinAll(List<? extends KFuture<?>> futures) {
+	for (Iterator<? extends KFuture<?>> i=futures.iterator(); i.hasNext(); )
+	    i.next().get();
+    }
+
+    /**
+     * Wake the thread waiting on <i>queue</i> when this future completes.
+     */
+    void addWatcher(ThreadQueue queue) {
+	watchers.add(queue);
+    }
+
+    /**
+     * Stop waking the thread waiting on <i>queue</i>.
+     */
+    void removeWatcher(ThreadQueue queue) {
+	watchers.remove(queue);
+    }
+
+    private static int firstDone(List<? extends KFuture<?>> futures) {
+	int index = 0;
+	for (Iterator<? extends KFuture<?>> i=futures.iterator(); i.hasNext(); ) {
+	    if (i.next().isDone())
+		return index;
+	    index++;
+	}
+
+	return -1;
+    }
+
+    /**
+     * Test that this module is working.
+     */
+    public static void selfTest() {
+	ArrayList<KFuture<Integer>> futures = new ArrayList<KFuture<Integer>>();
+	final int[] called = new int[1];
+
+	for (int i=0; i<4; i++) {
+	    final int n = i;
+	    KFuture<Integer> future = KThread.submit(new Callable<Integer>() {
+		    public Integer call() {
+			ThreadedKernel.alarm.waitUntil((4-n) * 600);
+			return new Integer(n*n);
+		    }
+		});
+	    future.onComplete(new Callback<Integer>() {
+		    public void completed(KFuture<Integer> future) {
+			called[0]++;
+		    }
+		});
+	    futures.add(future);
+	}
+
+	// the last future sleeps the least
+	Lib.assertTrue(joinAny(futures) == 3);
+	Lib.assertTrue(futures.get(0).get(1) == null);
+
+	joinAll(futures);
+	for (int i=0; i<4; i++)
+	    Lib.assertTrue(futures.get(i).get().intValue() == i*i);
+	Lib.assertTrue(called[0] == 4);
+
+	KFuture<Integer> failed = KThread.submit(new Callable<Integer>() {
+		public Integer call() throws Exception {
+		    throw new Exception("expected");
+		}
+	    });
+	Lib.assertTrue(failed.get() == null && failed.getException() != null);
+    }
+
+    private boolean done = false;
+    private T value = null;
+    private Exception exception = null;
+
+    private ThreadQueue waitQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+    /** The private queues of threads waiting in <tt>joinAny()</tt>. */
+    private ArrayList<ThreadQueue> watchers = new ArrayList<ThreadQueue>();
+    private ArrayList<Callback<T>> callbacks = null;
+}
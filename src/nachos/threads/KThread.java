@@ -2,6 +2,11 @@ package nachos.threads;
 
 import nachos.machine.*;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+
 /**
  * A KThread is a thread that can be used to execute Nachos kernel code. Nachos
  * allows multiple threads to run concurrently.
@@ -43,10 +48,6 @@ public class KThread {
      * create an idle thread as well.
      */
     public KThread() {
-    	
-		//initialize the condition2 object
-    	condition = new Condition2(lock);
-    	
 	if (currentThread != null) {
 	    tcb = new TCB();
 	}	    
@@ -108,6 +109,15 @@ public class KThread {
 	return name;
     }
 
+    /**
+     * Get the numerical ID of this thread. IDs are unique and never reused.
+     *
+     * @return	the ID of this thread.
+     */
+    int getID() {
+	return id;
+    }
+
     /**
      * Get the full name of this thread. This includes its name along with its
      * numerical ID. This name is used for debugging purposes only.
@@ -133,6 +143,56 @@ public class KThread {
 	    return 0;
     }
 
+    /**
+     * Return the scheduling statistics of this thread.
+     *
+     * @return	this thread's scheduling statistics.
+     */
+    public ThreadStats getStats() {
+	return stats;
+    }
+
+    /**
+     * Return the scheduling statistics of all threads, summed.
+     *
+     * @return	the scheduling statistics of all threads.
+     */
+    public static ThreadStats totalStats() {
+	return totalStats;
+    }
+
+    /**
+     * Return the histogram of the number of ticks threads have waited on the
+     * ready queue before being dispatched. The idle thread is not included.
+     *
+     * @return	the ready queue latency histogram.
+     */
+    public static LatencyHistogram readyLatency() {
+	return readyLatency;
+    }
+
+    /**
+     * Return the number of threads created so far, which bounds the number
+     * of threads alive at once.
+     *
+     * @return	the number of times the <tt>KThread</tt> constructor was
+     *		called.
+     */
+    static int getNumCreated() {
+	return numCreated;
+    }
+
+    /**
+     * Print the scheduling statistics of all threads.
+     */
+    public static void printStats() {
+	System.out.println("Scheduler: switches voluntary "
+			   + totalStats.voluntarySwitches
+			   + ", involuntary " + totalStats.involuntarySwitches
+			   + ", ready wait " + totalStats.readyWaitTicks);
+	System.out.println("Ready queue latency: " + readyLatency);
+    }
+
     /**
      * Causes this thread to begin execution. The result is that two threads
      * are running concurrently: the current thread (which returns from the
@@ -191,14 +251,13 @@ public class KThread {
 	Machine.interrupt().disable();
 
 	Machine.autoGrader().finishingCurrentThread();
+	SchedulerTrace.record(SchedulerTrace.eventFinish, currentThread);
 
 	Lib.assertTrue(toBeDestroyed == null);
 	toBeDestroyed = currentThread;
-	
-	lock.acquire(); //acquire the lock
-	
-	currentThread.condition.wake(); //wakes up all threads waiting on the condition
-	lock.release();
+
+	if (currentThread.joinQueue != null)
+	    readyAll(currentThread.joinQueue);
 
 	currentThread.status = statusFinished;
 	
@@ -251,8 +310,10 @@ public class KThread {
 	
 	Lib.assertTrue(Machine.interrupt().disabled());
 
-	if (currentThread.status != statusFinished)
+	if (currentThread.status != statusFinished) {
 	    currentThread.status = statusBlocked;
+	    SchedulerTrace.record(SchedulerTrace.eventSleep, currentThread);
+	}
 
 	runNextThread();
     }
@@ -268,12 +329,84 @@ public class KThread {
 	Lib.assertTrue(status != statusReady);
 	
 	status = statusReady;
-	if (this != idleThread)
+	stats.readySince = Machine.timer().getTime();
+	if (this != idleThread) {
+	    SchedulerTrace.record(SchedulerTrace.eventReady, this);
 	    readyQueue.waitForAccess(this);
+	}
 	
 	Machine.autoGrader().readyThread(this);
     }
 
+    /**
+     * Move all the specified threads to the ready state and add them to the
+     * ready queue, in order, with a single ready queue operation. Equivalent
+     * to calling <tt>ready()</tt> on each thread.
+     *
+     * @param	threads	the threads to ready. Must not include the idle
+     *			thread.
+     */
+    public static void readyAll(Collection<KThread> threads) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	long now = Machine.timer().getTime();
+
+	for (Iterator<KThread> i=threads.iterator(); i.hasNext(); ) {
+	    KThread thread = i.next();
+
+	    Lib.debug(dbgThread, "Ready thread: " + thread.toString());
+	    Lib.assertTrue(thread.status != statusReady);
+	    Lib.assertTrue(thread != idleThread);
+
+	    thread.status = statusReady;
+	    thread.stats.readySince = now;
+	    SchedulerTrace.record(SchedulerTrace.eventReady, thread);
+
+	    Machine.autoGrader().readyThread(thread);
+	}
+
+	readyQueue.waitForAccessAll(threads);
+    }
+
+    /**
+     * Move every thread waiting on the specified queue to the ready state,
+     * and add them to the ready queue in the order the queue would have
+     * given them access. Used to wake all the threads blocked on a queue at
+     * once, rather than calling <tt>nextThread()</tt> and <tt>ready()</tt>
+     * for each of them.
+     *
+     * @param	waitQueue	the queue whose threads to ready.
+     * @return	the number of threads readied.
+     */
+    public static int readyAll(ThreadQueue waitQueue) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	waitQueue.drainTo(wakeList);
+	int count = wakeList.size();
+	readyAll(wakeList);
+	wakeList.clear();
+
+	return count;
+    }
+
+    /**
+     * Run a computation in a new thread, and return a future for its result.
+     *
+     * @param	task	the computation to run.
+     * @return	a future that completes when the computation returns.
+     */
+    public static <T> KFuture<T> submit(final Callable<T> task) {
+	final KFuture<T> future = new KFuture<T>();
+
+	new KThread(new Runnable() {
+		public void run() {
+		    future.run(task);
+		}
+	    }).setName("future").fork();
+
+	return future;
+    }
+
     /**
      * Waits for this thread to finish. If this thread is already finished,
      * return immediately. This method must only be called once; the second
@@ -284,17 +417,23 @@ public class KThread {
 	Lib.debug(dbgThread, "Joining to thread: " + toString());
 
 	Lib.assertTrue(this != currentThread);
-	
-	lock.acquire(); //get the lock
-	
-	//the thread to join has already finished running, no need to suspend the current thread
-	if (status != statusFinished)
-	{
-		condition.sleep(); //necessary to suspend current thread until other thread finishes
-	}
 
-	lock.release();
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (status != statusFinished) {
+	    if (joinQueue == null) {
+		joinQueue = ThreadedKernel.scheduler.newThreadQueue(true);
+		joinQueue.acquire(this);
+	    }
+
+	    joinQueue.waitForAccess(currentThread);
+	    if (DeadlockDetector.isEnabled())
+		DeadlockDetector.waitFor(currentThread, this);
+	    sleep();
+	    currentThread.blockedOn = null;
+	}
 
+	Machine.interrupt().restore(intStatus);
     }
 
     /**
@@ -313,6 +452,7 @@ public class KThread {
 	    public void run() { while (true) yield(); }
 	});
 	idleThread.setName("idle");
+	ThreadedKernel.scheduler.setGroup(idleThread, idleThread);
 
 	Machine.autoGrader().setIdleThread(idleThread);
 	
@@ -358,6 +498,10 @@ public class KThread {
 
 	currentThread.saveState();
 
+	accountSwitch(currentThread, this);
+	SchedulerTrace.record(SchedulerTrace.eventRun,
+			      (this == idleThread) ? null : this);
+
 	Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
 		  + " to: " + toString());
 
@@ -368,6 +512,40 @@ public class KThread {
 	currentThread.restoreState();
     }
 
+    /**
+     * Charge the outgoing thread for the time it ran, and the incoming thread
+     * for the time it waited on the ready queue.
+     *
+     * @param	from	the thread giving up the processor.
+     * @param	to	the thread receiving the processor.
+     */
+    private static void accountSwitch(KThread from, KThread to) {
+	long now = Machine.timer().getTime();
+
+	long ran = now - from.stats.runningSince;
+	from.stats.runTicks += ran;
+	totalStats.runTicks += ran;
+
+	if (from != to) {
+	    if (from.status == statusReady) {
+		from.stats.involuntarySwitches++;
+		totalStats.involuntarySwitches++;
+	    }
+	    else {
+		from.stats.voluntarySwitches++;
+		totalStats.voluntarySwitches++;
+	    }
+	}
+
+	long waited = now - to.stats.readySince;
+	to.stats.readyWaitTicks += waited;
+	totalStats.readyWaitTicks += waited;
+	if (to != idleThread)
+	    readyLatency.record(waited);
+
+	to.stats.runningSince = now;
+    }
+
     /**
      * Prepare this thread to be run. Set <tt>status</tt> to
      * <tt>statusRunning</tt> and check <tt>toBeDestroyed</tt>.
@@ -449,6 +627,39 @@ public class KThread {
     private String name = "(unnamed thread)";
     private Runnable target;
     private TCB tcb;
+    private ThreadStats stats = new ThreadStats();
+
+    /**
+     * The threads waiting in <tt>join()</tt> for this thread to finish.
+     * Created by the first call to <tt>join()</tt>.
+     */
+    private ThreadQueue joinQueue = null;
+
+    /**
+     * Link to the next waiting thread, for thread queues that chain their
+     * waiting threads through the threads themselves. Only one queue may use
+     * this at a time, which is always possible since a thread waits on at
+     * most one queue at a time.
+     */
+    KThread queueNext = null;
+
+    /**
+     * The <tt>Lock</tt> or <tt>KThread</tt> this thread is blocked waiting
+     * for, as recorded by <tt>DeadlockDetector</tt>, or <tt>null</tt>.
+     */
+    Object blockedOn = null;
+
+    /** Link to the next thread sleeping in the same <tt>Alarm</tt> slot. */
+    KThread alarmNext = null;
+    /** The time a thread sleeping in <tt>Alarm</tt> wakes. */
+    long wakeTime;
+    /**
+     * The queue a thread in <tt>Alarm.sleepOn()</tt> is waiting on, which the
+     * alarm removes it from if it times out.
+     */
+    ThreadQueue timeoutQueue = null;
+    /** Set by the alarm when a thread in <tt>Alarm.sleepOn()</tt> times out. */
+    boolean timedOut = false;
 
     /**
      * Unique identifer for this thread. Used to deterministically compare
@@ -457,10 +668,11 @@ public class KThread {
     private int id = numCreated++;
     /** Number of times the KThread constructor was called. */
     private static int numCreated = 0;
-    
-	//must use condition variables
-    private static Lock lock = new Lock();
-    private Condition2 condition;
+
+    private static ThreadStats totalStats = new ThreadStats();
+    private static LatencyHistogram readyLatency = new LatencyHistogram();
+    /** Scratch list used by <tt>readyAll()</tt>, to avoid allocating. */
+    private static ArrayList<KThread> wakeList = new ArrayList<KThread>();
 
     private static ThreadQueue readyQueue = null;
     private static KThread currentThread = null;
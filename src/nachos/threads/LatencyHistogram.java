@@ -0,0 +1,199 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A histogram of non-negative tick counts, with logarithmic buckets.
+ *
+ * <p>
+ * Values below 8 are counted exactly. Every larger power-of-two range is
+ * split into 8 equal sub-buckets, so any recorded value is known to within
+ * 12.5%. Recording a value costs a few shifts and never allocates, so a
+ * histogram can be updated on every context switch.
+ */
+public class LatencyHistogram {
+    /**
+     * Allocate a new, empty histogram.
+     */
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Allocate a copy of another histogram, for example to snapshot a
+     * histogram that keeps being updated.
+     *
+     * @param	histogram	the histogram to copy.
+     */
+    public LatencyHistogram(LatencyHistogram histogram) {
+	System.arraycopy(histogram.buckets, 0, buckets, 0, buckets.length);
+	count = histogram.count;
+	total = histogram.total;
+	max = histogram.max;
+    }
+
+    /**
+     * Record one value.
+     *
+     * @param	value	the value to record. Must not be negative.
+     */
+    public void record(long value) {
+	Lib.assertTrue(value >= 0);
+
+	buckets[bucketOf(value)]++;
+	count++;
+	total += value;
+	if (value > max)
+	    max = value;
+    }
+
+    /**
+     * Return the number of values recorded.
+     *
+     * @return	the number of values recorded.
+     */
+    public long getCount() {
+	return count;
+    }
+
+    /**
+     * Return the sum of all values recorded.
+     *
+     * @return	the sum of all values recorded.
+     */
+    public long getTotal() {
+	return total;
+    }
+
+    /**
+     * Return the largest value recorded.
+     *
+     * @return	the largest value recorded, or 0 if there are none.
+     */
+    public long getMax() {
+	return max;
+    }
+
+    /**
+     * Return the mean of all values recorded.
+     *
+     * @return	the mean value, or 0 if there are none.
+     */
+    public long getMean() {
+	return (count == 0) ? 0 : total / count;
+    }
+
+    /**
+     * Return an upper bound on the specified percentile of the values
+     * recorded.
+     *
+     * @param	percentile	the percentile, between 0 and 100.
+     * @return	the largest value in the bucket containing the percentile,
+     *		or 0 if no values were recorded.
+     */
+    public long getPercentile(double percentile) {
+	Lib.assertTrue(percentile >= 0 && percentile <= 100);
+
+	if (count == 0)
+	    return 0;
+
+	long rank = (long) Math.ceil(count * percentile / 100);
+	if (rank < 1)
+	    rank = 1;
+
+	long seen = 0;
+	for (int i=0; i<buckets.length; i++) {
+	    seen += buckets[i];
+	    if (seen >= rank)
+		return Math.min(lowestValue(i+1) - 1, max);
+	}
+
+	return max;
+    }
+
+    /**
+     * Return a histogram of the values recorded in this histogram since it
+     * was copied to <i>earlier</i>. If the largest of those values did not
+     * raise this histogram's maximum, only the bucket it fell in is known,
+     * and the largest value in that bucket is used instead.
+     *
+     * @param	earlier	an earlier copy of this histogram.
+     * @return	a new histogram of the values recorded since.
+     */
+    public LatencyHistogram since(LatencyHistogram earlier) {
+	Lib.assertTrue(earlier.count <= count);
+
+	LatencyHistogram difference = new LatencyHistogram();
+	int highest = -1;
+	for (int i=0; i<buckets.length; i++) {
+	    difference.buckets[i] = buckets[i] - earlier.buckets[i];
+	    Lib.assertTrue(difference.buckets[i] >= 0);
+	    if (difference.buckets[i] > 0)
+		highest = i;
+	}
+	difference.count = count - earlier.count;
+	difference.total = total - earlier.total;
+
+	if (max > earlier.max)
+	    difference.max = max;
+	else if (highest >= 0)
+	    difference.max = Math.min(lowestValue(highest+1) - 1, max);
+
+	return difference;
+    }
+
+    /**
+     * Discard all recorded values.
+     */
+    public void reset() {
+	for (int i=0; i<buckets.length; i++)
+	    buckets[i] = 0;
+
+	count = total = max = 0;
+    }
+
+    /**
+     * Return a one-line summary of this histogram.
+     *
+     * @return	the count, mean, median, 90th and 99th percentiles, and
+     *		maximum.
+     */
+    public String toString() {
+	return "count " + count
+	    + ", mean " + getMean()
+	    + ", p50 " + getPercentile(50)
+	    + ", p90 " + getPercentile(90)
+	    + ", p99 " + getPercentile(99)
+	    + ", max " + max;
+    }
+
+    private static int bucketOf(long value) {
+	if (value < subBuckets)
+	    return (int) value;
+
+	int exponent = 63 - Long.numberOfLeadingZeros(value);
+	int sub = (int) (value >>> (exponent - subBucketBits)) & (subBuckets-1);
+
+	return (exponent - subBucketBits + 1) * subBuckets + sub;
+    }
+
+    private static long lowestValue(int bucket) {
+	if (bucket < subBuckets)
+	    return bucket;
+
+	int exponent = bucket / subBuckets + subBucketBits - 1;
+	long sub = bucket % subBuckets;
+
+	if (exponent >= 63)
+	    return Long.MAX_VALUE;
+
+	return (subBuckets + sub) << (exponent - subBucketBits);
+    }
+
+    private static final int subBucketBits = 3;
+    private static final int subBuckets = 1 << subBucketBits;
+
+    private long[] buckets = new long[(64 - subBucketBits + 1) * subBuckets];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+}
@@ -35,9 +35,13 @@ public class Lock {
 
 	boolean intStatus = Machine.interrupt().disable();
 	KThread thread = KThread.currentThread();
+	long startTime = (profile != null) ? profile.start() : 0;
+	boolean contended = (lockHolder != null);
 
-	if (lockHolder != null) {
+	if (contended) {
 	    waitQueue.waitForAccess(thread);
+	    if (DeadlockDetector.isEnabled())
+		DeadlockDetector.waitFor(thread, this);
 	    KThread.sleep();
 	}
 	else {
@@ -47,9 +51,48 @@ public class Lock {
 
 	Lib.assertTrue(lockHolder == thread);
 
+	if (profile != null)
+	    profile.acquired(startTime, contended);
+
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Atomically acquire this lock, waiting at most <i>ticks</i> clock ticks
+     * for it. The current thread must not already hold this lock. Timed
+     * waits cannot deadlock forever, so the deadlock detector ignores them.
+     *
+     * @param	ticks	the most clock ticks to wait.
+     * @return	<tt>true</tt> if the lock was acquired, or <tt>false</tt> if
+     *		the wait timed out.
+     */
+    public boolean tryAcquire(long ticks) {
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+	long startTime = (profile != null) ? profile.start() : 0;
+	boolean contended = (lockHolder != null);
+
+	if (contended) {
+	    waitQueue.waitForAccess(thread);
+	    ThreadedKernel.alarm.sleepOn(waitQueue, ticks);
+	}
+	else {
+	    waitQueue.acquire(thread);
+	    lockHolder = thread;
+	}
+
+	boolean acquired = (lockHolder == thread);
+
+	if (acquired && profile != null)
+	    profile.acquired(startTime, contended);
+
+	Machine.interrupt().restore(intStatus);
+
+	return acquired;
+    }
+
     /**
      * Atomically release this lock, allowing other threads to acquire it.
      */
@@ -58,12 +101,38 @@ public class Lock {
 
 	boolean intStatus = Machine.interrupt().disable();
 
-	if ((lockHolder = waitQueue.nextThread()) != null)
+	if (profile != null)
+	    profile.released();
+
+	if ((lockHolder = waitQueue.nextThread()) != null) {
+	    lockHolder.blockedOn = null;
 	    lockHolder.ready();
-	
+	    if (profile != null)
+		profile.handedOff();
+	}
+
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Set the name this lock is reported under by the contention profiler
+     * and the deadlock detector.
+     *
+     * @param	name	the name to give this lock.
+     * @return	this lock.
+     */
+    public Lock setName(String name) {
+	this.name = name;
+
+	if (profile != null) {
+	    boolean intStatus = Machine.interrupt().disable();
+	    profile.setName(name);
+	    Machine.interrupt().restore(intStatus);
+	}
+
+	return this;
+    }
+
     /**
      * Test if the current thread holds this lock.
      *
@@ -73,7 +142,26 @@ public class Lock {
 	return (lockHolder == KThread.currentThread());
     }
 
+    /**
+     * Return the thread holding this lock, or <tt>null</tt> if it is free.
+     */
+    KThread getHolder() {
+	return lockHolder;
+    }
+
+    /**
+     * Return the name of this lock: the name given by <tt>setName()</tt>,
+     * or where it was allocated if the deadlock detector was enabled then.
+     */
+    public String toString() {
+	return (name != null) ? name : "(unnamed lock)";
+    }
+
+    private String name = DeadlockDetector.isEnabled() ?
+	ContentionProfiler.allocationSite(Lock.class) : null;
     private KThread lockHolder = null;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(true);
+    private ContentionProfiler.Probe profile =
+	ContentionProfiler.probe(Lock.class);
 }
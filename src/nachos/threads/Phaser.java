@@ -0,0 +1,210 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>Phaser</tt> is a reusable barrier whose number of parties can change
+ * from one phase to the next:
+ *
+ * <ul>
+ * <li><tt>register()</tt>: add a party, which must arrive before the current
+ * phase can end.
+ * <li><tt>arrive()</tt>: record that a party has arrived, without waiting.
+ * <li><tt>arriveAndDeregister()</tt>: arrive, and take part in no later
+ * phases.
+ * <li><tt>arriveAndAwaitAdvance()</tt>: arrive, and wait for every other
+ * party to arrive.
+ * <li><tt>awaitAdvance()</tt>: wait for a phase to end, without taking part.
+ * </ul>
+ *
+ * <p>
+ * When the last registered party arrives, the phase number is incremented
+ * and every waiting thread is released at once, with a single
+ * <tt>KThread.readyAll()</tt>.
+ */
+public class Phaser {
+    /**
+     * Allocate a new phaser.
+     *
+     * @param	parties	the number of parties initially registered.
+     */
+    public Phaser(int parties) {
+	Lib.assertTrue(parties >= 0);
+
+	this.parties = parties;
+	this.unarrived = parties;
+    }
+
+    /**
+     * Add a new party to this phaser.
+     *
+     * @return	the phase the party joined.
+     */
+    public int register() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	parties++;
+	unarrived++;
+	int current = phase;
+
+	Machine.interrupt().restore(intStatus);
+
+	return current;
+    }
+
+    /**
+     * Record that a party has arrived at this phaser, without waiting for the
+     * others.
+     *
+     * @return	the phase arrived at.
+     */
+    public int arrive() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int current = phase;
+	arriveOne();
+
+	Machine.interrupt().restore(intStatus);
+
+	return current;
+    }
+
+    /**
+     * Record that a party has arrived at this phaser, and remove it from
+     * later phases.
+     *
+     * @return	the phase arrived at.
+     */
+    public int arriveAndDeregister() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int current = phase;
+	parties--;
+	arriveOne();
+
+	Machine.interrupt().restore(intStatus);
+
+	return current;
+    }
+
+    /**
+     * Record that a party has arrived at this phaser, and wait for the other
+     * parties to arrive.
+     *
+     * @return	the new phase.
+     */
+    public int arriveAndAwaitAdvance() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int current = phase;
+	arriveOne();
+	waitFor(current);
+	int next = phase;
+
+	Machine.interrupt().restore(intStatus);
+
+	return next;
+    }
+
+    /**
+     * Wait for the specified phase to end. Returns immediately if it already
+     * has.
+     *
+     * @param	phase	the phase to wait for, as returned by <tt>arrive()</tt>.
+     * @return	the new phase.
+     */
+    public int awaitAdvance(int phase) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	waitFor(phase);
+	int next = this.phase;
+
+	Machine.interrupt().restore(intStatus);
+
+	return next;
+    }
+
+    /**
+     * Return the current phase number.
+     *
+     * @return	the number of phases that have ended.
+     */
+    public int getPhase() {
+	return phase;
+    }
+
+    /**
+     * Return the number of parties registered.
+     *
+     * @return	the number of parties registered.
+     */
+    public int getRegisteredParties() {
+	return parties;
+    }
+
+    /**
+     * Return the number of parties that have arrived in the current phase.
+     *
+     * @return	the number of parties that have arrived.
+     */
+    public int getArrivedParties() {
+	return parties - unarrived;
+    }
+
+    /**
+     * Count one arrival, and end the phase if it was the last.
+     */
+    private void arriveOne() {
+	Lib.assertTrue(unarrived > 0);
+
+	if (--unarrived == 0) {
+	    phase++;
+	    unarrived = parties;
+	    KThread.readyAll(waitQueue);
+	}
+    }
+
+    /**
+     * Sleep until the specified phase has ended.
+     */
+    private void waitFor(int phase) {
+	if (this.phase == phase) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+    }
+
+    /**
+     * Test that this module is working.
+     */
+    public static void selfTest() {
+	final Phaser phaser = new Phaser(1);
+	final int[] arrivals = new int[1];
+
+	for (int i=0; i<3; i++) {
+	    phaser.register();
+	    final int rounds = i+1;
+	    new KThread(new Runnable() {
+		    public void run() {
+			for (int r=0; r<rounds; r++) {
+			    arrivals[0]++;
+			    phaser.arriveAndAwaitAdvance();
+			}
+			phaser.arriveAndDeregister();
+		    }
+		}).setName("phaser " + i).fork();
+	}
+
+	// parties leave after one, two and three phases
+	for (int p=0; p<4; p++)
+	    Lib.assertTrue(phaser.arriveAndAwaitAdvance() == p+1);
+	Lib.assertTrue(phaser.getRegisteredParties() == 1);
+	Lib.assertTrue(arrivals[0] == 6);
+    }
+
+    private int parties;
+    private int unarrived;
+    private int phase = 0;
+    private ThreadQueue waitQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
@@ -0,0 +1,264 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>ReadWriteLock</tt> is a lock that can be held either by any number of
+ * readers at once, or by a single writer:
+ *
+ * <ul>
+ * <li><tt>acquireRead()</tt>: wait until no writer holds or is waiting for the
+ * lock, then share it with the other readers.
+ * <li><tt>acquireWrite()</tt>: wait until no thread holds the lock, then hold
+ * it exclusively.
+ * <li><tt>downgrade()</tt>: atomically turn a write hold into a read hold.
+ * </ul>
+ *
+ * <p>
+ * Readers and writers take turns, so neither can starve the other. A reader
+ * that arrives while a writer is waiting waits behind it. When a writer
+ * releases the lock, every reader that was waiting gets the lock at once;
+ * when the last reader releases it, the next writer gets it. As with
+ * <tt>Lock</tt>, a released lock is handed directly to the threads being
+ * woken, so they never have to compete for it again.
+ *
+ * <p>
+ * Waiting threads are kept in thread queues from the scheduler. If
+ * priority is transferred, waiting writers donate priority to the writer
+ * holding the lock, as do waiting readers if that writer found the lock free.
+ * Readers holding the lock receive no donation, since there is no single
+ * thread that has access.
+ */
+public class ReadWriteLock {
+    /**
+     * Allocate a new read-write lock that does not transfer priority. The
+     * lock will initially be free.
+     */
+    public ReadWriteLock() {
+	this(false);
+    }
+
+    /**
+     * Allocate a new read-write lock. The lock will initially be free.
+     *
+     * @param	transferPriority	<tt>true</tt> if waiting threads should
+     *					donate priority to the writer holding
+     *					the lock.
+     */
+    public ReadWriteLock(boolean transferPriority) {
+	readQueue = ThreadedKernel.scheduler.newThreadQueue(transferPriority);
+	writeQueue = ThreadedKernel.scheduler.newThreadQueue(transferPriority);
+    }
+
+    /**
+     * Atomically acquire this lock for reading, sharing it with any other
+     * readers. The current thread must not hold this lock for writing.
+     */
+    public void acquireRead() {
+	Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (writer != null || waitingWriters > 0) {
+	    waitingReaders++;
+	    readQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep();
+	}
+	else {
+	    readers++;
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically release a read hold on this lock. If this was the last
+     * reader, the next waiting writer acquires the lock.
+     */
+    public void releaseRead() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Lib.assertTrue(readers > 0);
+
+	if (--readers == 0 && waitingWriters > 0)
+	    admitWriter();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically acquire this lock for writing. The current thread must not
+     * already hold this lock.
+     */
+    public void acquireWrite() {
+	Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	if (writer != null || readers > 0) {
+	    waitingWriters++;
+	    writeQueue.waitForAccess(thread);
+	    KThread.sleep();
+	}
+	else {
+	    writeQueue.acquire(thread);
+	    readQueue.acquire(thread);
+	    writer = thread;
+	}
+
+	Lib.assertTrue(writer == thread);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically release a write hold on this lock. Every waiting reader
+     * acquires the lock, or if there are none, the next waiting writer does.
+     */
+    public void releaseWrite() {
+	Lib.assertTrue(isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	writer = null;
+
+	if (waitingReaders > 0)
+	    admitReaders();
+	else if (waitingWriters > 0)
+	    admitWriter();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically turn the current thread's write hold on this lock into a
+     * read hold, letting every waiting reader share the lock. No writer can
+     * acquire the lock in between.
+     */
+    public void downgrade() {
+	Lib.assertTrue(isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	writer = null;
+	readers = 1;
+
+	if (waitingReaders > 0)
+	    admitReaders();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Test if the current thread holds this lock for writing.
+     *
+     * @return	true if the current thread holds this lock for writing.
+     */
+    public boolean isWriteHeldByCurrentThread() {
+	return (writer == KThread.currentThread());
+    }
+
+    /**
+     * Give the lock to every waiting reader at once.
+     */
+    private void admitReaders() {
+	readers += waitingReaders;
+	waitingReaders = 0;
+
+	KThread.readyAll(readQueue);
+    }
+
+    /**
+     * Give the lock to the next waiting writer.
+     */
+    private void admitWriter() {
+	writer = writeQueue.nextThread();
+	Lib.assertTrue(writer != null);
+	waitingWriters--;
+
+	writer.ready();
+    }
+
+    private static class Worker implements Runnable {
+	Worker(ReadWriteLock lock, int[] state, boolean writer) {
+	    this.lock = lock;
+	    this.state = state;
+	    this.writer = writer;
+	}
+
+	public void run() {
+	    for (int i=0; i<5; i++) {
+		if (writer) {
+		    lock.acquireWrite();
+		    Lib.assertTrue(state[readersIn] == 0 && state[writing] == 0);
+		    state[writing] = 1;
+		    KThread.yield();
+		    state[writing] = 0;
+		    lock.releaseWrite();
+		}
+		else {
+		    lock.acquireRead();
+		    Lib.assertTrue(state[writing] == 0);
+		    state[readersIn]++;
+		    state[maxReaders] = Math.max(state[maxReaders],
+						 state[readersIn]);
+		    KThread.yield();
+		    state[readersIn]--;
+		    lock.releaseRead();
+		}
+		KThread.yield();
+	    }
+	}
+
+	private ReadWriteLock lock;
+	private int[] state;
+	private boolean writer;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	final ReadWriteLock lock = new ReadWriteLock();
+	int[] state = new int[3];
+
+	KThread[] workers = new KThread[6];
+	for (int i=0; i<workers.length; i++) {
+	    workers[i] = new KThread(new Worker(lock, state, i%3 == 0));
+	    workers[i].setName("rw " + i).fork();
+	}
+	for (int i=0; i<workers.length; i++)
+	    workers[i].join();
+
+	Lib.assertTrue(state[maxReaders] > 1);
+
+	// a reader waiting on a writer gets in as soon as the writer downgrades
+	final boolean[] read = new boolean[1];
+	lock.acquireWrite();
+	KThread reader = new KThread(new Runnable() {
+		public void run() {
+		    lock.acquireRead();
+		    read[0] = true;
+		    lock.releaseRead();
+		}
+	    });
+	reader.setName("rw reader").fork();
+	KThread.yield();
+	Lib.assertTrue(!read[0]);
+	lock.downgrade();
+	reader.join();
+	Lib.assertTrue(read[0]);
+	lock.releaseRead();
+    }
+
+    private static final int readersIn = 0, writing = 1, maxReaders = 2;
+
+    private KThread writer = null;
+    private int readers = 0;
+    private int waitingReaders = 0;
+    private int waitingWriters = 0;
+
+    private ThreadQueue readQueue;
+    private ThreadQueue writeQueue;
+}
@@ -2,15 +2,15 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.Iterator;
 
 /**
  * A round-robin scheduler tracks waiting threads in FIFO queues, implemented
- * with linked lists. When a thread begins waiting for access, it is appended
- * to the end of a list. The next thread to receive access is always the first
- * thread in the list. This causes access to be given on a first-come
- * first-serve basis.
+ * with linked lists threaded through the waiting threads themselves. When a
+ * thread begins waiting for access, it is appended to the end of a list. The
+ * next thread to receive access is always the first thread in the list. This
+ * causes access to be given on a first-come first-serve basis.
  */
 public class RoundRobinScheduler extends Scheduler {
     /**
@@ -39,7 +39,32 @@ public class RoundRobinScheduler extends Scheduler {
 	public void waitForAccess(KThread thread) {
 	    Lib.assertTrue(Machine.interrupt().disabled());
 		       
-	    waitQueue.add(thread);
+	    append(thread, thread);
+	}
+
+	/**
+	 * Add the threads to the end of the wait queue, in order. The threads
+	 * are linked to each other first, and then appended in one step.
+	 *
+	 * @param	threads	the threads to append to the queue.
+	 */
+	public void waitForAccessAll(Collection<KThread> threads) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    KThread first = null, last = null;
+	    for (Iterator<KThread> i=threads.iterator(); i.hasNext(); ) {
+		KThread thread = i.next();
+		Lib.assertTrue(thread.queueNext == null);
+
+		if (last == null)
+		    first = thread;
+		else
+		    last.queueNext = thread;
+		last = thread;
+	    }
+
+	    if (first != null)
+		append(first, last);
 	}
 
 	/**
@@ -52,10 +77,44 @@ public class RoundRobinScheduler extends Scheduler {
 	public KThread nextThread() {
 	    Lib.assertTrue(Machine.interrupt().disabled());
 		       
-	    if (waitQueue.isEmpty())
+	    if (head == null)
 		return null;
 
-	    return (KThread) waitQueue.removeFirst();
+	    KThread thread = head;
+	    head = thread.queueNext;
+	    if (head == null)
+		tail = null;
+	    thread.queueNext = null;
+
+	    return thread;
+	}
+
+	/**
+	 * Remove a thread from anywhere in the queue.
+	 *
+	 * @param	thread	the thread to remove.
+	 * @return	<tt>true</tt> if the thread was on the queue.
+	 */
+	public boolean remove(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    KThread previous = null;
+	    for (KThread t=head; t!=null; previous=t, t=t.queueNext) {
+		if (t != thread)
+		    continue;
+
+		if (previous == null)
+		    head = t.queueNext;
+		else
+		    previous.queueNext = t.queueNext;
+		if (tail == t)
+		    tail = previous;
+		t.queueNext = null;
+
+		return true;
+	    }
+
+	    return false;
 	}
 
 	/**
@@ -66,7 +125,46 @@ public class RoundRobinScheduler extends Scheduler {
 	public void acquire(KThread thread) {
 	    Lib.assertTrue(Machine.interrupt().disabled());
 		       
-	    Lib.assertTrue(waitQueue.isEmpty());
+	    Lib.assertTrue(head == null);
+	}
+
+	/**
+	 * Move all the threads on this queue to the end of another queue. If
+	 * the other queue is also a FIFO queue, the whole list is spliced on
+	 * in constant time.
+	 *
+	 * @param	queue	the queue the threads should now wait on.
+	 */
+	public void drainTo(ThreadQueue queue) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    if (!(queue instanceof FifoQueue)) {
+		super.drainTo(queue);
+		return;
+	    }
+
+	    if (head != null)
+		((FifoQueue) queue).append(head, tail);
+
+	    head = tail = null;
+	}
+
+	/**
+	 * Remove all the threads on this queue, in order.
+	 *
+	 * @param	threads	the collection to add the threads to.
+	 */
+	public void drainTo(Collection<KThread> threads) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    while (head != null) {
+		KThread thread = head;
+		head = thread.queueNext;
+		thread.queueNext = null;
+		threads.add(thread);
+	    }
+
+	    tail = null;
 	}
 
 	/**
@@ -75,10 +173,27 @@ public class RoundRobinScheduler extends Scheduler {
 	public void print() {
 	    Lib.assertTrue(Machine.interrupt().disabled());
 
-	    for (Iterator i=waitQueue.iterator(); i.hasNext(); )
-		System.out.print((KThread) i.next() + " ");
+	    for (KThread thread=head; thread!=null; thread=thread.queueNext)
+		System.out.print(thread + " ");
 	}
 
-	private LinkedList<KThread> waitQueue = new LinkedList<KThread>();
+	/**
+	 * Append a chain of threads, already linked through their
+	 * <tt>queueNext</tt> fields, to the end of this queue.
+	 */
+	private void append(KThread first, KThread last) {
+	    if (tail == null)
+		head = first;
+	    else
+		tail.queueNext = first;
+
+	    tail = last;
+	}
+
+	/**
+	 * The waiting threads, linked through <tt>KThread.queueNext</tt> so
+	 * that waiting does not allocate.
+	 */
+	private KThread head = null, tail = null;
     }
 }
@@ -131,6 +131,43 @@ public abstract class Scheduler {
 	setPriority(KThread.currentThread(), priority);
     }
 
+    /**
+     * Place the specified thread in the specified scheduling group. Must be
+     * called with interrupts disabled, and before the thread is waiting on
+     * any queue.
+     *
+     * <p>
+     * Schedulers that share the processor between groups of threads (for
+     * example, all the threads belonging to one user process) use this to
+     * decide which threads compete together. Other schedulers ignore it.
+     *
+     * @param	thread	the thread to place in a group.
+     * @param	group	any object identifying the group, or <tt>null</tt> to
+     *			return the thread to the default group.
+     */
+    public void setGroup(KThread thread, Object group) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+    }
+
+    /**
+     * Charge processor time to the specified thread, as if it had just run
+     * for <i>ticks</i> ticks, finishing at time <i>now</i>. Must be called
+     * with interrupts disabled.
+     *
+     * <p>
+     * Schedulers that order threads by their past usage normally charge the
+     * current thread themselves, from the time on the machine's timer. This
+     * lets a simulation, such as <tt>SchedulerReplay</tt>, run threads on
+     * its own clock instead. Other schedulers ignore it.
+     *
+     * @param	thread	the thread that ran.
+     * @param	ticks	the number of ticks it ran for.
+     * @param	now	the simulated time at which it stopped running.
+     */
+    public void charge(KThread thread, long ticks, long now) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+    }
+
     /**
      * If possible, raise the priority of the current thread in some
      * scheduler-dependent way.
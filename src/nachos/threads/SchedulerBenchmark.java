@@ -0,0 +1,355 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A kernel that measures the cost of the scheduler named by
+ * <tt>ThreadedKernel.scheduler</tt>, and of the synchronization primitives
+ * built on it.
+ *
+ * <p>
+ * Two kinds of benchmark are run, each at 10, 100, 1000 and 10000 threads:
+ *
+ * <ul>
+ * <li>Queue benchmarks fill a single thread queue with unforked threads and
+ * empty it again, measuring the host nanoseconds per
+ * <tt>waitForAccess()</tt> and per <tt>nextThread()</tt>.
+ *
+ * <li>Workload benchmarks fork real threads in ping-pong, producer/consumer,
+ * lock convoy and priority inversion patterns, and report host nanoseconds
+ * and simulated ticks per context switch, along with ready queue latency.
+ * The machine allows at most <tt>TCB.maxThreads</tt> live threads, so these
+ * are capped at <tt>maxLiveThreads</tt>.
+ * </ul>
+ *
+ * <p>
+ * Each run measures one scheduler; to compare schedulers, run this kernel
+ * once with each. <tt>SchedulerBenchmark.rounds</tt> sets how many times
+ * each workload thread repeats its pattern.
+ */
+public class SchedulerBenchmark extends ThreadedKernel {
+    /**
+     * Allocate a new benchmark kernel.
+     */
+    public SchedulerBenchmark() {
+	super();
+    }
+
+    /**
+     * Benchmark kernels do not test anything.
+     */
+    public void selfTest() {
+    }
+
+    /**
+     * Run every benchmark at every size.
+     */
+    public void run() {
+	rounds = Config.getInteger("SchedulerBenchmark.rounds", 10);
+	Lib.assertTrue(rounds > 0);
+
+	System.out.println("Benchmarking " + scheduler.getClass().getName()
+			   + ", " + rounds + " rounds");
+
+	for (int i=0; i<sizes.length; i++)
+	    benchmarkQueue(sizes[i]);
+
+	for (int i=0; i<sizes.length; i++) {
+	    int n = Math.min(sizes[i], maxLiveThreads);
+
+	    benchmark(new PingPong(), n);
+	    benchmark(new ProducerConsumer(), n);
+	    benchmark(new LockConvoy(), n);
+	    benchmark(new PriorityInversion(), n);
+
+	    if (n < sizes[i])
+		break;
+	}
+    }
+
+    /**
+     * Time filling and emptying one thread queue of <i>n</i> threads.
+     */
+    private void benchmarkQueue(int n) {
+	KThread[] threads = new KThread[n];
+	for (int i=0; i<n; i++)
+	    threads[i] = new KThread().setName("queued " + i);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	ThreadQueue queue = scheduler.newThreadQueue(false);
+	Lib.assertTrue(queue != null, "scheduler returned no thread queue");
+
+	int repeat = Math.max(1, 100000 / n);
+	long waitNanos = 0, nextNanos = 0;
+
+	for (int r=0; r<repeat; r++) {
+	    long start = System.nanoTime();
+	    for (int i=0; i<n; i++)
+		queue.waitForAccess(threads[i]);
+	    long middle = System.nanoTime();
+	    for (int i=0; i<n; i++)
+		Lib.assertTrue(queue.nextThread() != null);
+	    long end = System.nanoTime();
+
+	    waitNanos += middle - start;
+	    nextNanos += end - middle;
+	}
+
+	Lib.assertTrue(queue.nextThread() == null);
+
+	Machine.interrupt().restore(intStatus);
+
+	long ops = (long) n * repeat;
+	System.out.println("queue " + n + ": ns/waitForAccess "
+			   + waitNanos / ops
+			   + ", ns/nextThread " + nextNanos / ops);
+    }
+
+    /**
+     * Fork <i>n</i> threads running the workload, wait for them all to
+     * finish, and print what it cost.
+     */
+    private void benchmark(Workload workload, int n) {
+	workload.setup(n);
+
+	KThread[] threads = new KThread[n];
+	for (int i=0; i<n; i++)
+	    threads[i] = new KThread(workload.thread(i))
+		.setName(workload.name() + " " + i);
+
+	ThreadStats total = KThread.totalStats();
+	long switches = total.getVoluntarySwitches()
+	    + total.getInvoluntarySwitches();
+	long ticks = Machine.timer().getTime();
+	LatencyHistogram latency = new LatencyHistogram(KThread.readyLatency());
+	long start = System.nanoTime();
+
+	for (int i=0; i<n; i++)
+	    threads[i].fork();
+	for (int i=0; i<n; i++)
+	    threads[i].join();
+
+	long nanos = System.nanoTime() - start;
+	ticks = Machine.timer().getTime() - ticks;
+	switches = total.getVoluntarySwitches()
+	    + total.getInvoluntarySwitches() - switches;
+	long perSwitch = Math.max(1, switches);
+
+	System.out.println(workload.name() + " " + n + ": switches " + switches
+			   + ", ns/switch " + nanos / perSwitch
+			   + ", ticks/switch " + ticks / perSwitch
+			   + workload.result());
+	System.out.println("    ready latency: "
+			   + KThread.readyLatency().since(latency));
+    }
+
+    private abstract class Workload {
+	abstract String name();
+	abstract void setup(int n);
+	abstract Runnable thread(int i);
+
+	String result() {
+	    return "";
+	}
+    }
+
+    /**
+     * Pairs of threads passing a token back and forth through semaphores.
+     */
+    private class PingPong extends Workload {
+	String name() {
+	    return "ping-pong";
+	}
+
+	void setup(int n) {
+	    ping = new Semaphore[n];
+	    for (int i=0; i<n; i++)
+		ping[i] = new Semaphore(0);
+	}
+
+	Runnable thread(final int i) {
+	    // an odd thread out pairs with itself
+	    final int partner = (i%2 == 0) ? Math.min(i+1, ping.length-1) : i-1;
+
+	    return new Runnable() {
+		public void run() {
+		    for (int r=0; r<rounds; r++) {
+			if (i%2 == 0 || partner == i) {
+			    ping[partner].V();
+			    ping[i].P();
+			}
+			else {
+			    ping[i].P();
+			    ping[partner].V();
+			}
+		    }
+		}
+	    };
+	}
+
+	private Semaphore[] ping;
+    }
+
+    /**
+     * Half the threads producing into, and half consuming from, one small
+     * bounded buffer.
+     */
+    private class ProducerConsumer extends Workload {
+	String name() {
+	    return "producer/consumer";
+	}
+
+	void setup(int n) {
+	    lock = new Lock();
+	    notEmpty = new Condition2(lock);
+	    notFull = new Condition2(lock);
+	    count = 0;
+	    producers = (n+1) / 2;
+	    consumers = n - producers;
+	    // consumers take exactly what the producers make
+	    perConsumer = (consumers == 0) ? 0 : producers * rounds / consumers;
+	    extra = (consumers == 0) ? 0 : producers * rounds % consumers;
+	    if (consumers == 0)
+		capacity = Integer.MAX_VALUE;
+	}
+
+	Runnable thread(final int i) {
+	    if (i < producers) {
+		return new Runnable() {
+		    public void run() {
+			for (int r=0; r<rounds; r++) {
+			    lock.acquire();
+			    while (count == capacity)
+				notFull.sleep();
+			    count++;
+			    notEmpty.wake();
+			    lock.release();
+			}
+		    }
+		};
+	    }
+
+	    final int items = perConsumer + ((i - producers < extra) ? 1 : 0);
+	    return new Runnable() {
+		public void run() {
+		    for (int r=0; r<items; r++) {
+			lock.acquire();
+			while (count == 0)
+			    notEmpty.sleep();
+			count--;
+			notFull.wake();
+			lock.release();
+		    }
+		}
+	    };
+	}
+
+	private Lock lock;
+	private Condition2 notEmpty, notFull;
+	private int count, producers, consumers, perConsumer, extra;
+	private int capacity = 4;
+    }
+
+    /**
+     * Every thread repeatedly taking one lock and yielding while it holds
+     * it, so that all the others queue up behind it.
+     */
+    private class LockConvoy extends Workload {
+	String name() {
+	    return "lock convoy";
+	}
+
+	void setup(int n) {
+	    lock = new Lock();
+	}
+
+	Runnable thread(int i) {
+	    return new Runnable() {
+		public void run() {
+		    for (int r=0; r<rounds; r++) {
+			lock.acquire();
+			KThread.yield();
+			lock.release();
+		    }
+		}
+	    };
+	}
+
+	private Lock lock;
+    }
+
+    /**
+     * A low priority thread holding a lock that a high priority thread
+     * needs, while every other thread runs at medium priority. Reports how
+     * long the high priority thread waited for the lock.
+     */
+    private class PriorityInversion extends Workload {
+	String name() {
+	    return "priority inversion";
+	}
+
+	void setup(int n) {
+	    lock = new Lock();
+	    held = new Semaphore(0);
+	    waited = 0;
+	}
+
+	Runnable thread(int i) {
+	    if (i == 0) {
+		return new Runnable() {
+		    public void run() {
+			setPriority(PriorityScheduler.priorityMinimum);
+			lock.acquire();
+			held.V();
+			for (int r=0; r<rounds; r++)
+			    KThread.yield();
+			lock.release();
+		    }
+		};
+	    }
+	    else if (i == 1) {
+		return new Runnable() {
+		    public void run() {
+			setPriority(PriorityScheduler.priorityMaximum);
+			held.P();
+			long start = Machine.timer().getTime();
+			lock.acquire();
+			waited = Machine.timer().getTime() - start;
+			lock.release();
+		    }
+		};
+	    }
+	    else {
+		return new Runnable() {
+		    public void run() {
+			setPriority(PriorityScheduler.priorityDefault);
+			for (int r=0; r<rounds; r++)
+			    KThread.yield();
+		    }
+		};
+	    }
+	}
+
+	String result() {
+	    return ", high priority waited " + waited + " ticks";
+	}
+
+	private void setPriority(int priority) {
+	    boolean intStatus = Machine.interrupt().disable();
+	    scheduler.setPriority(priority);
+	    Machine.interrupt().restore(intStatus);
+	}
+
+	private Lock lock;
+	private Semaphore held;
+	private long waited;
+    }
+
+    private static final int[] sizes = { 10, 100, 1000, 10000 };
+
+    /** The most threads a workload may fork, leaving room for the kernel. */
+    private static final int maxLiveThreads = TCB.maxThreads - 10;
+
+    private int rounds;
+}
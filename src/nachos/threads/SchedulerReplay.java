@@ -0,0 +1,296 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * A kernel that replays a trace recorded by <tt>SchedulerTrace</tt> against
+ * the scheduler named by <tt>ThreadedKernel.scheduler</tt>, and reports how
+ * well that scheduler would have served the traced workload.
+ *
+ * <p>
+ * The trace is reduced to one job per traced thread: the time the thread
+ * first became ready, and then alternating CPU bursts (the ticks it ran
+ * between becoming ready and blocking or finishing) and think times (the
+ * ticks it stayed blocked). The replay then simulates a single processor
+ * directly on the scheduler's ready queue, without forking any threads or
+ * running any user code: the thread the queue picks runs for the rest of
+ * its burst or one timer quantum, whichever is shorter, and is then either
+ * requeued or blocked for its think time.
+ *
+ * <p>
+ * Only the scheduler's queue ordering is exercised; the machine is needed
+ * only for the interrupt state the queues assert on. The machine's timer
+ * does not advance during the replay, so each slice is charged to the
+ * thread that ran it with <tt>Scheduler.charge()</tt>, at the replay's own
+ * simulated time, for schedulers that order threads by their usage. To use
+ * it, set <tt>Kernel.kernel</tt> to
+ * <tt>nachos.threads.SchedulerReplay</tt> and name the trace with
+ * <tt>SchedulerReplay.trace</tt>.
+ */
+public class SchedulerReplay extends ThreadedKernel {
+    /**
+     * Allocate a new replay kernel.
+     */
+    public SchedulerReplay() {
+	super();
+    }
+
+    /**
+     * Replay kernels do not test anything.
+     */
+    public void selfTest() {
+    }
+
+    /**
+     * Load the trace named by <tt>SchedulerReplay.trace</tt> and replay it.
+     */
+    public void run() {
+	String traceName = Config.getString("SchedulerReplay.trace");
+	Lib.assertTrue(traceName != null, "no SchedulerReplay.trace");
+	Lib.assertTrue(fileSystem != null, "no file system to read trace");
+
+	OpenFile file = fileSystem.open(traceName, false);
+	Lib.assertTrue(file != null, "could not open " + traceName);
+
+	byte[] trace = Lib.loadFile(file);
+	file.close();
+	Lib.assertTrue(trace != null, "could not read " + traceName);
+
+	System.out.println("Replaying " + traceName + " with "
+			   + scheduler.getClass().getName());
+
+	boolean intStatus = Machine.interrupt().disable();
+	replay(parse(trace));
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Reduce a trace to the jobs of the threads it contains.
+     */
+    private ArrayList<Job> parse(byte[] trace) {
+	for (int i=0; i<SchedulerTrace.magic.length; i++)
+	    Lib.assertTrue(trace[i] == SchedulerTrace.magic[i],
+			   "not a scheduler trace");
+
+	HashMap<Integer, Job> jobs = new HashMap<Integer, Job>();
+	ArrayList<Job> order = new ArrayList<Job>();
+
+	Job running = null;
+	long runningSince = 0;
+	long time = 0;
+
+	for (int offset = SchedulerTrace.magic.length;
+	     offset + SchedulerTrace.recordSize <= trace.length;
+	     offset += SchedulerTrace.recordSize) {
+	    int event = trace[offset];
+	    time += Lib.bytesToInt(trace, offset+1);
+	    int id = Lib.bytesToInt(trace, offset+5);
+
+	    if (event != SchedulerTrace.eventReady &&
+		event != SchedulerTrace.eventRun &&
+		event != SchedulerTrace.eventSleep &&
+		event != SchedulerTrace.eventFinish)
+		continue;
+
+	    Job job = null;
+	    if (id != -1) {
+		job = jobs.get(id);
+		if (job == null) {
+		    job = new Job(id, time);
+		    jobs.put(id, job);
+		    order.add(job);
+		}
+	    }
+
+	    switch (event) {
+	    case SchedulerTrace.eventReady:
+		if (job != null && job.blockedSince >= 0) {
+		    job.thinks.add(time - job.blockedSince);
+		    job.blockedSince = -1;
+		}
+		break;
+
+	    case SchedulerTrace.eventRun:
+		if (running != null) {
+		    running.demand += time - runningSince;
+		    if (running.blocking) {
+			running.bursts.add(running.demand);
+			running.demand = 0;
+			running.blocking = false;
+			running.blockedSince = time;
+		    }
+		}
+		running = job;
+		runningSince = time;
+		break;
+
+	    case SchedulerTrace.eventSleep:
+	    case SchedulerTrace.eventFinish:
+		if (job != null)
+		    job.blocking = true;
+		break;
+	    }
+	}
+
+	// drop think times that were never followed by another burst
+	for (Iterator<Job> i=order.iterator(); i.hasNext(); ) {
+	    Job job = i.next();
+	    if (job.demand > 0 && !job.blocking)
+		job.bursts.add(job.demand);
+	    while (job.thinks.size() >= job.bursts.size() &&
+		   !job.thinks.isEmpty())
+		job.thinks.remove(job.thinks.size()-1);
+	    if (job.bursts.isEmpty())
+		i.remove();
+	}
+
+	return order;
+    }
+
+    /**
+     * Simulate the jobs on the scheduler's ready queue and print a report.
+     */
+    private void replay(ArrayList<Job> jobs) {
+	ThreadQueue readyQueue = scheduler.newThreadQueue(false);
+	Lib.assertTrue(readyQueue != null, "scheduler returned no thread queue");
+
+	HashMap<KThread, Job> byThread = new HashMap<KThread, Job>();
+	PriorityQueue<Job> arrivals =
+	    new PriorityQueue<Job>(Math.max(1, jobs.size()),
+				   new Comparator<Job>() {
+		    public int compare(Job j1, Job j2) {
+			return Long.signum(j1.nextArrival - j2.nextArrival);
+		    }
+		});
+
+	for (Iterator<Job> i=jobs.iterator(); i.hasNext(); ) {
+	    Job job = i.next();
+	    job.thread = new KThread().setName("replay " + job.id);
+	    job.remaining = job.bursts.get(0);
+	    job.nextArrival = job.firstArrival;
+	    byThread.put(job.thread, job);
+	    arrivals.add(job);
+	}
+
+	LatencyHistogram latency = new LatencyHistogram();
+	long start = arrivals.isEmpty() ? 0 : arrivals.peek().nextArrival;
+	long clock = start, idle = 0, dispatches = 0, burstsDone = 0;
+
+	while (true) {
+	    while (!arrivals.isEmpty() && arrivals.peek().nextArrival <= clock) {
+		Job job = arrivals.poll();
+		job.readySince = job.nextArrival;
+		readyQueue.waitForAccess(job.thread);
+	    }
+
+	    KThread thread = readyQueue.nextThread();
+	    if (thread == null) {
+		if (arrivals.isEmpty())
+		    break;
+
+		idle += arrivals.peek().nextArrival - clock;
+		clock = arrivals.peek().nextArrival;
+		continue;
+	    }
+
+	    Job job = byThread.get(thread);
+	    Lib.assertTrue(job != null, "scheduler returned a stranger");
+
+	    latency.record(clock - job.readySince);
+	    job.waited += clock - job.readySince;
+	    dispatches++;
+
+	    long slice = Math.min(job.remaining, Stats.TimerTicks);
+	    clock += slice;
+	    job.remaining -= slice;
+	    scheduler.charge(thread, slice, clock);
+
+	    while (!arrivals.isEmpty() && arrivals.peek().nextArrival <= clock) {
+		Job arrival = arrivals.poll();
+		arrival.readySince = arrival.nextArrival;
+		readyQueue.waitForAccess(arrival.thread);
+	    }
+
+	    if (job.remaining > 0) {
+		job.readySince = clock;
+		readyQueue.waitForAccess(thread);
+	    }
+	    else if (++job.next < job.bursts.size()) {
+		burstsDone++;
+		job.remaining = job.bursts.get(job.next);
+		job.nextArrival = clock + job.thinks.get(job.next-1);
+		arrivals.add(job);
+	    }
+	    else {
+		burstsDone++;
+	    }
+	}
+
+	long elapsed = Math.max(1, clock - start);
+
+	// Jain's index over the share of each job's ready time it was served
+	double sum = 0, sumSquares = 0;
+	for (Iterator<Job> i=jobs.iterator(); i.hasNext(); ) {
+	    Job job = i.next();
+	    long total = job.total();
+	    double served = 1;
+	    if (total + job.waited > 0)
+		served = (double) total / (total + job.waited);
+	    sum += served;
+	    sumSquares += served * served;
+	}
+	double fairness = jobs.isEmpty() ? 1 : sum*sum / (jobs.size()*sumSquares);
+
+	System.out.println("Replay: threads " + jobs.size()
+			   + ", bursts " + burstsDone
+			   + ", dispatches " + dispatches
+			   + ", ticks " + elapsed
+			   + ", idle " + idle);
+	System.out.println("Throughput: " + (burstsDone * 1000 / elapsed)
+			   + " bursts per 1000 ticks");
+	System.out.println("Fairness: Jain index "
+			   + Math.round(fairness * 1000) / 1000.0);
+	System.out.println("Ready queue latency: " + latency);
+    }
+
+    /**
+     * The workload of one traced thread.
+     */
+    private static class Job {
+	Job(int id, long firstArrival) {
+	    this.id = id;
+	    this.firstArrival = firstArrival;
+	}
+
+	long total() {
+	    long total = 0;
+	    for (Iterator<Long> i=bursts.iterator(); i.hasNext(); )
+		total += i.next();
+	    return total;
+	}
+
+	int id;
+	long firstArrival;
+	ArrayList<Long> bursts = new ArrayList<Long>();
+	ArrayList<Long> thinks = new ArrayList<Long>();
+
+	// used while parsing
+	long demand = 0;
+	boolean blocking = false;
+	long blockedSince = -1;
+
+	// used while replaying
+	KThread thread;
+	int next = 0;
+	long remaining;
+	long nextArrival;
+	long readySince;
+	long waited = 0;
+    }
+}
@@ -0,0 +1,167 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Records scheduling events to a compact trace file, for replay by
+ * <tt>SchedulerReplay</tt>.
+ *
+ * <p>
+ * Tracing is enabled by naming a trace file with the <tt>nachos.conf</tt> key
+ * <tt>ThreadedKernel.schedulerTrace</tt>. <tt>ThreadedKernel</tt> then wraps
+ * its scheduler in a <tt>TracingScheduler</tt>, which records every
+ * <tt>waitForAccess()</tt>, <tt>acquire()</tt> and <tt>nextThread()</tt>, and
+ * <tt>KThread</tt> records every thread that is readied, dispatched, put to
+ * sleep or finished.
+ *
+ * <p>
+ * Each event is stored as a fixed-size record of <tt>recordSize</tt> bytes:
+ *
+ * <p><blockquote><pre>
+ * byte  event		one of the eventZZZ constants
+ * int   ticks		simulated ticks since the previous record
+ * int   thread		the thread's ID, or -1 for none (or the idle thread)
+ * int   queue		the queue's ID, or -1 for events not on a queue
+ * </pre></blockquote>
+ *
+ * <p>
+ * All integers are little-endian, as produced by
+ * <tt>Lib.bytesFromInt()</tt>. The file starts with the four bytes of
+ * <tt>magic</tt>. Writing a file through the file system may put the current
+ * thread to sleep, so records are kept in memory while the kernel runs, and
+ * the file is written once when the kernel terminates.
+ */
+public class SchedulerTrace {
+    private SchedulerTrace() {
+    }
+
+    /**
+     * Start recording. Events are collected in memory until <tt>stop()</tt>
+     * is called.
+     *
+     * @param	fileName	the name of the trace file to write on
+     *				<tt>stop()</tt>.
+     */
+    public static void start(String fileName) {
+	Lib.assertTrue(ThreadedKernel.fileSystem != null);
+
+	SchedulerTrace.fileName = fileName;
+	lastTime = Machine.timer().getTime();
+	recording = true;
+    }
+
+    /**
+     * Stop recording, and write all recorded events to the trace file. Does
+     * nothing if tracing was never started.
+     */
+    public static void stop() {
+	if (!recording)
+	    return;
+
+	recording = false;
+
+	OpenFile file = ThreadedKernel.fileSystem.open(fileName, true);
+	if (file == null) {
+	    System.out.println("Scheduler trace: could not open " + fileName);
+	    return;
+	}
+
+	file.write(magic, 0, magic.length);
+	for (Iterator<byte[]> i=chunks.iterator(); i.hasNext(); )
+	    file.write(i.next(), 0, chunkSize);
+	file.write(chunk, 0, chunkUsed);
+	file.close();
+
+	System.out.println("Scheduler trace: " + numRecords + " events written"
+			   + " to " + fileName);
+    }
+
+    /**
+     * Test whether events are being recorded.
+     *
+     * @return	<tt>true</tt> if events are being recorded.
+     */
+    public static boolean isRecording() {
+	return recording;
+    }
+
+    /**
+     * Record an event that is not on a particular queue.
+     *
+     * @param	event	the event.
+     * @param	thread	the thread involved, or <tt>null</tt>.
+     */
+    static void record(int event, KThread thread) {
+	record(event, thread, -1);
+    }
+
+    /**
+     * Record an event. Does nothing unless recording.
+     *
+     * @param	event	the event.
+     * @param	thread	the thread involved, or <tt>null</tt>.
+     * @param	queue	the ID of the queue involved, or -1.
+     */
+    static void record(int event, KThread thread, int queue) {
+	if (!recording)
+	    return;
+
+	if (chunkUsed == chunkSize) {
+	    chunks.add(chunk);
+	    chunk = new byte[chunkSize];
+	    chunkUsed = 0;
+	}
+
+	long time = Machine.timer().getTime();
+	long ticks = Math.min(time - lastTime, Integer.MAX_VALUE);
+	lastTime = time;
+
+	chunk[chunkUsed] = (byte) event;
+	Lib.bytesFromInt(chunk, chunkUsed+1, (int) ticks);
+	Lib.bytesFromInt(chunk, chunkUsed+5,
+			 (thread == null) ? -1 : thread.getID());
+	Lib.bytesFromInt(chunk, chunkUsed+9, queue);
+	chunkUsed += recordSize;
+
+	numRecords++;
+    }
+
+    /** A new thread queue was created; the thread is -1. */
+    public static final int eventNewQueue = 0;
+    /** <tt>ThreadQueue.waitForAccess()</tt> was called. */
+    public static final int eventWaitForAccess = 1;
+    /** <tt>ThreadQueue.acquire()</tt> was called. */
+    public static final int eventAcquire = 2;
+    /** <tt>ThreadQueue.nextThread()</tt> returned the thread (or -1). */
+    public static final int eventNextThread = 3;
+    /** <tt>KThread.ready()</tt> was called. */
+    public static final int eventReady = 4;
+    /** The thread was dispatched. */
+    public static final int eventRun = 5;
+    /** The thread blocked in <tt>KThread.sleep()</tt>. */
+    public static final int eventSleep = 6;
+    /** The thread called <tt>KThread.finish()</tt>. */
+    public static final int eventFinish = 7;
+    /** <tt>ThreadQueue.remove()</tt> removed the thread from the queue. */
+    public static final int eventRemove = 8;
+
+    /** The size of one event record, in bytes. */
+    public static final int recordSize = 13;
+
+    /** The first bytes of every trace file. */
+    public static final byte[] magic = { 'N', 'S', 'T', '1' };
+
+    private static final int chunkSize = recordSize * 4096;
+
+    private static boolean recording = false;
+    private static String fileName;
+    private static long lastTime;
+    private static long numRecords = 0;
+
+    private static LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+    private static byte[] chunk = new byte[chunkSize];
+    private static int chunkUsed = 0;
+}
@@ -36,8 +36,10 @@ public class Semaphore {
      */
     public void P() {
 	boolean intStatus = Machine.interrupt().disable();
+	long startTime = (profile != null) ? profile.start() : 0;
+	boolean contended = (value == 0);
 
-	if (value == 0) {
+	if (contended) {
 	    waitQueue.waitForAccess(KThread.currentThread());
 	    KThread.sleep();
 	}
@@ -45,7 +47,41 @@ public class Semaphore {
 	    value--;
 	}
 
+	if (profile != null)
+	    profile.acquired(startTime, contended);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically wait at most <i>ticks</i> clock ticks for this semaphore to
+     * become non-zero, and decrement it.
+     *
+     * @param	ticks	the most clock ticks to wait.
+     * @return	<tt>true</tt> if the semaphore was decremented, or
+     *		<tt>false</tt> if the wait timed out.
+     */
+    public boolean tryP(long ticks) {
+	boolean intStatus = Machine.interrupt().disable();
+	long startTime = (profile != null) ? profile.start() : 0;
+	boolean contended = (value == 0);
+	boolean decremented = true;
+
+	if (contended) {
+	    // V() hands its increment directly to the thread it wakes
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    decremented = !ThreadedKernel.alarm.sleepOn(waitQueue, ticks);
+	}
+	else {
+	    value--;
+	}
+
+	if (decremented && profile != null)
+	    profile.acquired(startTime, contended);
+
 	Machine.interrupt().restore(intStatus);
+
+	return decremented;
     }
 
     /**
@@ -58,6 +94,8 @@ public class Semaphore {
 	KThread thread = waitQueue.nextThread();
 	if (thread != null) {
 	    thread.ready();
+	    if (profile != null)
+		profile.handedOff();
 	}
 	else {
 	    value++;
@@ -66,6 +104,23 @@ public class Semaphore {
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Set the name this semaphore is reported under by the contention
+     * profiler. Does nothing if the semaphore is not being profiled.
+     *
+     * @param	name	the name to give this semaphore.
+     * @return	this semaphore.
+     */
+    public Semaphore setName(String name) {
+	if (profile != null) {
+	    boolean intStatus = Machine.interrupt().disable();
+	    profile.setName(name);
+	    Machine.interrupt().restore(intStatus);
+	}
+
+	return this;
+    }
+
     private static class PingTest implements Runnable {
 	PingTest(Semaphore ping, Semaphore pong) {
 	    this.ping = ping;
@@ -101,4 +156,6 @@ public class Semaphore {
     private int value;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(false);
+    private ContentionProfiler.Probe profile =
+	ContentionProfiler.probe(Semaphore.class);
 }
@@ -14,7 +14,7 @@ public class SynchList {
     public SynchList() {
 	list = new LinkedList<Object>();
 	lock = new Lock();
-	listEmpty = new Condition(lock);
+	listEmpty = new Condition2(lock);
     }
 
     /**
@@ -50,6 +50,31 @@ public class SynchList {
 	return o;
     }
 
+    /**
+     * Remove an object from the front of the queue, waiting at most
+     * <i>ticks</i> clock ticks for the queue to become non-empty.
+     *
+     * @param	ticks	the most clock ticks to wait.
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the queue was still empty after the timeout.
+     */
+    public Object removeFirst(long ticks) {
+	Object o = null;
+
+	lock.acquire();
+	long deadline = Machine.timer().getTime() + ticks;
+	while (list.isEmpty()) {
+	    long remaining = deadline - Machine.timer().getTime();
+	    if (remaining <= 0 || !listEmpty.sleepFor(remaining))
+		break;
+	}
+	if (!list.isEmpty())
+	    o = list.removeFirst();
+	lock.release();
+
+	return o;
+    }
+
     private static class PingTest implements Runnable {
 	PingTest(SynchList ping, SynchList pong) {
 	    this.ping = ping;
@@ -79,10 +104,12 @@ public class SynchList {
 	    ping.add(o);
 	    Lib.assertTrue(pong.removeFirst() == o);
 	}
+
+	Lib.assertTrue(pong.removeFirst(1000) == null);
     }
 
     private LinkedList<Object> list;
     private Lock lock;
-    private Condition listEmpty;
+    private Condition2 listEmpty;
 }
 
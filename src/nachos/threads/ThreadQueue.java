@@ -1,5 +1,10 @@
 package nachos.threads;
 
+import nachos.machine.*;
+
+import java.util.Collection;
+import java.util.Iterator;
+
 /**
  * Schedules access to some sort of resource with limited access constraints. A
  * thread queue can be used to share this limited access among multiple
@@ -91,6 +96,63 @@ public abstract class ThreadQueue {
      */
     public abstract void acquire(KThread thread);
 
+    /**
+     * Remove the specified thread from this queue without giving it access,
+     * for example because it has stopped waiting after a timeout. Does nothing
+     * if the thread is not waiting on this queue, as when
+     * <tt>nextThread()</tt> has already returned it.
+     *
+     * <p>
+     * Thread queues that do not support timed waits need not implement this.
+     *
+     * @param	thread	the thread to remove.
+     * @return	<tt>true</tt> if the thread was waiting on this queue.
+     */
+    public boolean remove(KThread thread) {
+	Lib.assertNotReached("thread queue does not support remove()");
+	return false;
+    }
+
+    /**
+     * Notify this thread queue that all of the specified threads are waiting
+     * for access, in the order they are returned by the collection's
+     * iterator. Equivalent to calling <tt>waitForAccess()</tt> on each of
+     * them, but implementations may be able to add them all at once.
+     *
+     * @param	threads	the threads waiting for access.
+     */
+    public void waitForAccessAll(Collection<KThread> threads) {
+	for (Iterator<KThread> i=threads.iterator(); i.hasNext(); )
+	    waitForAccess(i.next());
+    }
+
+    /**
+     * Move every thread waiting on this queue to the specified queue, as if
+     * each was returned by <tt>nextThread()</tt> and then passed to
+     * <tt>queue.waitForAccess()</tt>. Implementations may be able to move all
+     * the threads at once when both queues belong to the same scheduler.
+     *
+     * @param	queue	the queue the threads should now wait on.
+     */
+    public void drainTo(ThreadQueue queue) {
+	KThread thread;
+	while ((thread = nextThread()) != null)
+	    queue.waitForAccess(thread);
+    }
+
+    /**
+     * Remove every thread waiting on this queue, adding them to the
+     * specified collection in the order <tt>nextThread()</tt> would have
+     * returned them.
+     *
+     * @param	threads	the collection to add the threads to.
+     */
+    public void drainTo(Collection<KThread> threads) {
+	KThread thread;
+	while ((thread = nextThread()) != null)
+	    threads.add(thread);
+    }
+
     /**
      * Print out all the threads waiting for access, in no particular order.
      */
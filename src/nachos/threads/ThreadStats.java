@@ -0,0 +1,90 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Scheduling statistics for one <tt>KThread</tt>: how long it has run, how
+ * long it has waited on the ready queue, and how often it has given up the
+ * processor.
+ *
+ * <p>
+ * A switch is <i>voluntary</i> if the thread gave up the processor because it
+ * blocked or finished, and <i>involuntary</i> if it was still ready to run
+ * (it yielded, or was preempted by the timer).
+ *
+ * <p>
+ * These statistics are maintained by <tt>KThread</tt> itself as threads are
+ * readied and dispatched, so they are collected the same way no matter which
+ * <tt>Scheduler</tt> is in use. Since the same counters are also summed over
+ * all threads, they are available as a whole through
+ * <tt>KThread.totalStats()</tt>.
+ *
+ * @see	nachos.threads.KThread#getStats
+ */
+public class ThreadStats {
+    /**
+     * Allocate a new, zeroed set of statistics.
+     */
+    public ThreadStats() {
+    }
+
+    /**
+     * Return the number of ticks this thread has spent running.
+     *
+     * @return	the number of ticks spent running.
+     */
+    public long getRunTicks() {
+	return runTicks;
+    }
+
+    /**
+     * Return the number of ticks this thread has spent on the ready queue.
+     *
+     * @return	the number of ticks spent waiting to run.
+     */
+    public long getReadyWaitTicks() {
+	return readyWaitTicks;
+    }
+
+    /**
+     * Return the number of times this thread has given up the processor
+     * because it blocked or finished.
+     *
+     * @return	the number of voluntary context switches.
+     */
+    public long getVoluntarySwitches() {
+	return voluntarySwitches;
+    }
+
+    /**
+     * Return the number of times this thread has given up the processor
+     * while still ready to run.
+     *
+     * @return	the number of involuntary context switches.
+     */
+    public long getInvoluntarySwitches() {
+	return involuntarySwitches;
+    }
+
+    /**
+     * Return a one-line summary of these statistics.
+     *
+     * @return	a summary of these statistics.
+     */
+    public String toString() {
+	return "run " + runTicks
+	    + ", ready wait " + readyWaitTicks
+	    + ", switches voluntary " + voluntarySwitches
+	    + ", involuntary " + involuntarySwitches;
+    }
+
+    long runTicks = 0;
+    long readyWaitTicks = 0;
+    long voluntarySwitches = 0;
+    long involuntarySwitches = 0;
+
+    /** The time this thread was last readied. */
+    long readySince = 0;
+    /** The time this thread was last dispatched. */
+    long runningSince = 0;
+}
@@ -22,6 +22,24 @@ public class ThreadedKernel extends Kernel {
 	String schedulerName = Config.getString("ThreadedKernel.scheduler");
 	scheduler = (Scheduler) Lib.constructObject(schedulerName);
 
+	// wrap the scheduler if its decisions are to be traced
+	String traceName = Config.getString("ThreadedKernel.schedulerTrace");
+	if (traceName != null)
+	    scheduler = new TracingScheduler(scheduler);
+
+	// profile primitives created from now on, if asked to
+	if (Config.getBoolean("ThreadedKernel.profileContention", false))
+	    ContentionProfiler.enable();
+
+	// check for deadlocks, if asked to
+	String deadlockMode = Config.getString("ThreadedKernel.deadlockDetector");
+	if (deadlockMode != null) {
+	    Lib.assertTrue(deadlockMode.equals("report") ||
+			   deadlockMode.equals("abort"),
+			   "ThreadedKernel.deadlockDetector must be report or abort");
+	    DeadlockDetector.enable(deadlockMode.equals("abort"));
+	}
+
 	// set fileSystem
 	String fileSystemName = Config.getString("ThreadedKernel.fileSystem");
 	if (fileSystemName != null)
@@ -37,6 +55,9 @@ public class ThreadedKernel extends Kernel {
 	alarm  = new Alarm();
 
 	Machine.interrupt().enable();
+
+	if (traceName != null)
+	    SchedulerTrace.start(traceName);
     }
 
     /**
@@ -49,6 +70,12 @@ public class ThreadedKernel extends Kernel {
 	KThread.selfTest();
 	Semaphore.selfTest();
 	SynchList.selfTest();
+	BoundedSynchList.selfTest();
+	ReadWriteLock.selfTest();
+	Channel.selfTest();
+	Barrier.selfTest();
+	Phaser.selfTest();
+	KFuture.selfTest();
 	if (Machine.bank() != null) {
 	    ElevatorBank.selfTest();
 	}
@@ -62,9 +89,12 @@ public class ThreadedKernel extends Kernel {
     }
 
     /**
-     * Terminate this kernel. Never returns.
+     * Terminate this kernel, printing scheduler statistics. Never returns.
      */
     public void terminate() {
+	SchedulerTrace.stop();
+	KThread.printStats();
+	ContentionProfiler.print();
 	Machine.halt();
     }
 
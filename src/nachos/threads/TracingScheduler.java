@@ -0,0 +1,104 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A scheduler that passes every request on to another scheduler, recording
+ * each thread queue operation with <tt>SchedulerTrace</tt>.
+ *
+ * @see	nachos.threads.SchedulerTrace
+ */
+public class TracingScheduler extends Scheduler {
+    /**
+     * Allocate a new tracing scheduler.
+     *
+     * @param	scheduler	the scheduler that actually makes all
+     *				scheduling decisions.
+     */
+    public TracingScheduler(Scheduler scheduler) {
+	this.scheduler = scheduler;
+    }
+
+    /**
+     * Allocate a new thread queue from the underlying scheduler, and wrap it
+     * so that it records its operations.
+     *
+     * @param	transferPriority	passed to the underlying scheduler.
+     * @return	a new tracing thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	ThreadQueue queue = scheduler.newThreadQueue(transferPriority);
+	Lib.assertTrue(queue != null, "scheduler returned no thread queue");
+
+	return new TracingQueue(queue);
+    }
+
+    public int getPriority(KThread thread) {
+	return scheduler.getPriority(thread);
+    }
+
+    public int getEffectivePriority(KThread thread) {
+	return scheduler.getEffectivePriority(thread);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	scheduler.setPriority(thread, priority);
+    }
+
+    public void setGroup(KThread thread, Object group) {
+	scheduler.setGroup(thread, group);
+    }
+
+    public void charge(KThread thread, long ticks, long now) {
+	scheduler.charge(thread, ticks, now);
+    }
+
+    public boolean increasePriority() {
+	return scheduler.increasePriority();
+    }
+
+    public boolean decreasePriority() {
+	return scheduler.decreasePriority();
+    }
+
+    private class TracingQueue extends ThreadQueue {
+	TracingQueue(ThreadQueue queue) {
+	    this.queue = queue;
+
+	    SchedulerTrace.record(SchedulerTrace.eventNewQueue, null, id);
+	}
+
+	public void waitForAccess(KThread thread) {
+	    SchedulerTrace.record(SchedulerTrace.eventWaitForAccess, thread, id);
+	    queue.waitForAccess(thread);
+	}
+
+	public KThread nextThread() {
+	    KThread thread = queue.nextThread();
+	    SchedulerTrace.record(SchedulerTrace.eventNextThread, thread, id);
+	    return thread;
+	}
+
+	public void acquire(KThread thread) {
+	    SchedulerTrace.record(SchedulerTrace.eventAcquire, thread, id);
+	    queue.acquire(thread);
+	}
+
+	public boolean remove(KThread thread) {
+	    boolean removed = queue.remove(thread);
+	    if (removed)
+		SchedulerTrace.record(SchedulerTrace.eventRemove, thread, id);
+	    return removed;
+	}
+
+	public void print() {
+	    queue.print();
+	}
+
+	private ThreadQueue queue;
+	private int id = numQueues++;
+    }
+
+    private Scheduler scheduler;
+    private int numQueues = 0;
+}
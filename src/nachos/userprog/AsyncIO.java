@@ -0,0 +1,178 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.LinkedList;
+
+/**
+ * The asynchronous reads and writes of one process. Requests are queued to
+ * a single kernel I/O worker thread, shared by all processes, which does
+ * them in order while the process keeps running; the process later
+ * collects a result for each request.
+ *
+ * <p>
+ * The worker does the requests one at a time, so that requests on the same
+ * file descriptor use and advance its position in the order they were
+ * made, just as synchronous reads and writes would. Since a request that
+ * never finished would hold up every process, only requests on files, which
+ * always finish, are accepted; <tt>UserProcess</tt> refuses pipes and the
+ * console.
+ */
+public class AsyncIO {
+    /**
+     * Allocate the asynchronous I/O state of a process.
+     *
+     * @param	process	the process whose memory the requests transfer.
+     */
+    public AsyncIO(UserProcess process) {
+	this.process = process;
+    }
+
+    /**
+     * Queue a read or write for the I/O worker.
+     *
+     * @param	file	the file to read or write.
+     * @param	vaddr	the process's buffer.
+     * @param	size	the number of bytes to transfer.
+     * @param	read	<tt>true</tt> to read from the file, <tt>false</tt> to
+     *			write to it.
+     * @return	the ID of the request, or -1 if too many requests are
+     *		outstanding. A request is outstanding until its result is
+     *		collected, so completed results cannot pile up without
+     *		bound.
+     */
+    public int submit(OpenFile file, int vaddr, int size, boolean read) {
+	lock.acquire();
+
+	int id = -1;
+	if (outstanding < maxOutstanding) {
+	    id = nextID++;
+	    outstanding++;
+	}
+
+	lock.release();
+
+	if (id != -1)
+	    queue().add(new Request(this, id, file, vaddr, size, read));
+
+	return id;
+    }
+
+    /**
+     * Collect the results of completed requests, oldest first.
+     *
+     * @param	max	the most results to collect.
+     * @param	block	<tt>true</tt> to wait for a request to complete if
+     *			none has, unless none are outstanding.
+     * @return	the ID and result of each request collected, in consecutive
+     *		elements.
+     */
+    public int[] collect(int max, boolean block) {
+	lock.acquire();
+
+	while (block && completed.isEmpty() && outstanding > 0)
+	    completion.sleep();
+
+	int count = Math.min(max, completed.size());
+	int[] results = new int[count*2];
+	for (int i=0; i<count; i++) {
+	    int[] result = completed.removeFirst();
+	    results[i*2] = result[0];
+	    results[i*2+1] = result[1];
+	}
+	outstanding -= count;
+
+	lock.release();
+
+	return results;
+    }
+
+    /**
+     * Wait until every request has completed, and discard the results.
+     */
+    public void drain() {
+	lock.acquire();
+
+	while (outstanding > completed.size())
+	    completion.sleep();
+	completed.clear();
+	outstanding = 0;
+
+	lock.release();
+    }
+
+    private void complete(int id, int result) {
+	lock.acquire();
+
+	completed.add(new int[] { id, result });
+	completion.wakeAll();
+
+	lock.release();
+    }
+
+    /**
+     * Return the worker's request queue, starting the worker if this is the
+     * first request.
+     */
+    private static SynchList queue() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (requests == null) {
+	    requests = new SynchList();
+
+	    new KThread(new Runnable() {
+		    public void run() { workerLoop(); }
+		}).setName("I/O worker").fork();
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return requests;
+    }
+
+    private static void workerLoop() {
+	while (true) {
+	    Request request = (Request) requests.removeFirst();
+	    UserProcess process = request.aio.process;
+
+	    int result = request.read
+		? process.readFile(request.file, request.vaddr, request.size)
+		: process.writeFile(request.file, request.vaddr, request.size);
+
+	    request.aio.complete(request.id, result);
+	}
+    }
+
+    private static class Request {
+	Request(AsyncIO aio, int id, OpenFile file, int vaddr, int size,
+		boolean read) {
+	    this.aio = aio;
+	    this.id = id;
+	    this.file = file;
+	    this.vaddr = vaddr;
+	    this.size = size;
+	    this.read = read;
+	}
+
+	AsyncIO aio;
+	int id;
+	OpenFile file;
+	int vaddr, size;
+	boolean read;
+    }
+
+    /** The most requests a process may have outstanding. */
+    public static final int maxOutstanding = 32;
+
+    private static SynchList requests = null;
+
+    private UserProcess process;
+    private int nextID = 0;
+    /** The requests submitted whose results have not been collected. */
+    private int outstanding = 0;
+    private LinkedList<int[]> completed = new LinkedList<int[]>();
+
+    private Lock lock = new Lock();
+    private Condition2 completion = new Condition2(lock);
+}
@@ -0,0 +1,228 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Hands out the pages of physical memory to user processes. Free frames are
+ * kept on a stack, so allocating and freeing a frame each take constant
+ * time, and the frames given to a process need not be contiguous. The
+ * process owning each frame is recorded, so that frames can be traced back
+ * to their owners. Every frame is zeroed as it is allocated, so a process
+ * never sees data left behind by the previous owner of a frame.
+ *
+ * <p>
+ * Callbacks may be registered to run whenever the number of free frames
+ * drops below a watermark; for example, to start evicting pages before
+ * memory runs out. A callback runs in the thread whose allocation crossed
+ * the watermark, after the allocation has finished, and runs again only
+ * after the number of free frames has risen back to the watermark.
+ */
+public class FrameAllocator {
+    /**
+     * Allocate a new frame allocator, with every frame free.
+     *
+     * @param	numFrames	the number of physical frames to manage.
+     */
+    public FrameAllocator(int numFrames) {
+	Lib.assertTrue(numFrames >= 0);
+
+	freeStack = new int[numFrames];
+	owners = new UserProcess[numFrames];
+
+	// push in reverse, so that frames are first handed out in order
+	for (int i=0; i<numFrames; i++)
+	    freeStack[i] = numFrames-1-i;
+	numFree = numFrames;
+    }
+
+    /**
+     * Allocate one frame to the specified process.
+     *
+     * @param	owner	the process that will own the frame.
+     * @return	the number of the frame allocated, or -1 if no frame is
+     *		free.
+     */
+    public int allocate(UserProcess owner) {
+	Lib.assertTrue(owner != null);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	int ppn = -1;
+	if (numFree > 0) {
+	    ppn = freeStack[--numFree];
+	    owners[ppn] = owner;
+	    zero(ppn);
+	}
+
+	Runnable[] crossed = checkWatermarks();
+
+	Machine.interrupt().restore(intStatus);
+
+	runAll(crossed);
+	return ppn;
+    }
+
+    /**
+     * Allocate <tt>frames.length</tt> frames to the specified process, or
+     * none at all if there are not enough free frames.
+     *
+     * @param	owner	the process that will own the frames.
+     * @param	frames	the array where the allocated frame numbers will be
+     *			stored.
+     * @return	<tt>true</tt> if the frames were allocated.
+     */
+    public boolean allocate(UserProcess owner, int[] frames) {
+	Lib.assertTrue(owner != null);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	boolean success = (frames.length <= numFree);
+	if (success) {
+	    for (int i=0; i<frames.length; i++) {
+		frames[i] = freeStack[--numFree];
+		owners[frames[i]] = owner;
+		zero(frames[i]);
+	    }
+	}
+
+	Runnable[] crossed = checkWatermarks();
+
+	Machine.interrupt().restore(intStatus);
+
+	runAll(crossed);
+	return success;
+    }
+
+    private static void zero(int ppn) {
+	int pageSize = Processor.pageSize;
+	Arrays.fill(Machine.processor().getMemory(), ppn*pageSize,
+		    (ppn+1)*pageSize, (byte) 0);
+    }
+
+    /**
+     * Return a frame to the free pool.
+     *
+     * @param	ppn	the number of the frame to free. Must be allocated.
+     */
+    public void free(int ppn) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Lib.assertTrue(ppn >= 0 && ppn < owners.length && owners[ppn] != null);
+
+	owners[ppn] = null;
+	freeStack[numFree++] = ppn;
+
+	rearmWatermarks();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the process that owns the specified frame.
+     *
+     * @param	ppn	the number of a frame.
+     * @return	the owner of the frame, or <tt>null</tt> if it is free.
+     */
+    public UserProcess getOwner(int ppn) {
+	Lib.assertTrue(ppn >= 0 && ppn < owners.length);
+
+	return owners[ppn];
+    }
+
+    /**
+     * Return the number of frames that are not allocated.
+     *
+     * @return	the number of free frames.
+     */
+    public int getNumFree() {
+	return numFree;
+    }
+
+    /**
+     * Return the number of frames managed by this allocator.
+     *
+     * @return	the total number of frames.
+     */
+    public int getNumFrames() {
+	return owners.length;
+    }
+
+    /**
+     * Arrange for <i>callback</i> to run whenever the number of free frames
+     * drops below <i>watermark</i>. The callback must not assume that the
+     * number of free frames is still below the watermark when it runs.
+     *
+     * @param	watermark	the number of free frames to stay at or above.
+     * @param	callback	the callback to run.
+     */
+    public void addLowWatermark(int watermark, Runnable callback) {
+	Lib.assertTrue(watermark > 0 && callback != null);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	watermarks.add(new Watermark(watermark, callback));
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Collect the callbacks of any watermarks the number of free frames has
+     * just dropped below. Called with interrupts disabled.
+     */
+    private Runnable[] checkWatermarks() {
+	ArrayList<Runnable> crossed = null;
+
+	for (int i=0; i<watermarks.size(); i++) {
+	    Watermark mark = watermarks.get(i);
+	    if (mark.armed && numFree < mark.frames) {
+		mark.armed = false;
+		if (crossed == null)
+		    crossed = new ArrayList<Runnable>();
+		crossed.add(mark.callback);
+	    }
+	}
+
+	return (crossed == null) ? null : crossed.toArray(new Runnable[0]);
+    }
+
+    /**
+     * Re-arm the watermarks the number of free frames has risen back to.
+     * Called with interrupts disabled.
+     */
+    private void rearmWatermarks() {
+	for (int i=0; i<watermarks.size(); i++) {
+	    Watermark mark = watermarks.get(i);
+	    if (numFree >= mark.frames)
+		mark.armed = true;
+	}
+    }
+
+    private static void runAll(Runnable[] callbacks) {
+	if (callbacks != null) {
+	    for (int i=0; i<callbacks.length; i++)
+		callbacks[i].run();
+	}
+    }
+
+    private static class Watermark {
+	Watermark(int frames, Runnable callback) {
+	    this.frames = frames;
+	    this.callback = callback;
+	}
+
+	int frames;
+	Runnable callback;
+	boolean armed = true;
+    }
+
+    /** The free frames; the top of the stack is <tt>freeStack[numFree-1]</tt>. */
+    private int[] freeStack;
+    private int numFree;
+    /** The process owning each frame, or <tt>null</tt> for a free frame. */
+    private UserProcess[] owners;
+    private ArrayList<Watermark> watermarks = new ArrayList<Watermark>();
+}
@@ -0,0 +1,268 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * The system-wide table of open files. Every open of the same file shares
+ * one underlying <tt>OpenFile</tt> from the file system, which is closed when
+ * the last process closes it. Each open returns its own handle, with its own
+ * file position, for a process's descriptor table.
+ *
+ * <p>
+ * Unlinking a file that is still open only removes its name; the file itself
+ * is removed from the file system when its last handle is closed. Until
+ * then, and until the removal has finished, the name cannot be opened or
+ * created again.
+ *
+ * <p>
+ * The file system may sleep on every call, so the table's lock is never held
+ * across one. Names with an open waiting on the file system are recorded,
+ * and unlinking such a name waits for the open to finish, so the open never
+ * adds a file to the table after it has been removed.
+ */
+public class OpenFileTable {
+    /**
+     * Allocate a new open-file table over the specified file system.
+     *
+     * @param	fileSystem	the file system to open files on.
+     */
+    public OpenFileTable(FileSystem fileSystem) {
+	this.fileSystem = fileSystem;
+    }
+
+    /**
+     * Open a file, sharing the underlying file if it is already open.
+     *
+     * @param	name	the name of the file.
+     * @param	create	<tt>true</tt> to create the file, or truncate it if it
+     *			already exists.
+     * @return	a new handle for the file, or <tt>null</tt> if it could not
+     *		be opened, or has been unlinked but is still open.
+     */
+    public OpenFile open(String name, boolean create) {
+	// the file system may sleep for a long time, so it is called without
+	// the lock held, and the table is checked again afterwards
+	lock.acquire();
+
+	Entry entry = entries.get(name);
+	boolean refused = (entry == null && unlinked.containsKey(name));
+	// keep a shared file open while it is truncated
+	if (entry != null)
+	    entry.refCount++;
+	// make unlink() wait for this open to finish
+	else if (!refused)
+	    opening.put(name, getNumOpening(name) + 1);
+
+	lock.release();
+
+	if (refused)
+	    return null;
+
+	if (entry != null) {
+	    if (create) {
+		// truncate the shared file, as a new open would
+		OpenFile truncated = fileSystem.open(name, true);
+		if (truncated == null) {
+		    release(entry);
+		    return null;
+		}
+		truncated.close();
+	    }
+
+	    return new Handle(entry);
+	}
+
+	OpenFile file = fileSystem.open(name, create);
+
+	lock.acquire();
+
+	if (getNumOpening(name) == 1)
+	    opening.remove(name);
+	else
+	    opening.put(name, getNumOpening(name) - 1);
+	openDone.wakeAll();
+
+	// another thread may have opened, or opened and unlinked, the file
+	// while this one was waiting for the file system
+	entry = null;
+	if (file != null) {
+	    entry = entries.get(name);
+	    if (entry == null && !unlinked.containsKey(name)) {
+		entry = new Entry(name, file);
+		entries.put(name, entry);
+		file = null;
+	    }
+	    if (entry != null)
+		entry.refCount++;
+	}
+
+	lock.release();
+
+	if (file != null)
+	    file.close();
+
+	return (entry != null) ? new Handle(entry) : null;
+    }
+
+    /**
+     * Remove the name of a file. If the file is open, it is removed once its
+     * last handle is closed.
+     *
+     * @param	name	the name of the file.
+     * @return	<tt>true</tt> if the file existed.
+     */
+    public boolean unlink(String name) {
+	lock.acquire();
+
+	// an open in progress may be about to add the file to the table
+	while (!entries.containsKey(name) && getNumOpening(name) > 0)
+	    openDone.sleep();
+
+	Entry entry = entries.remove(name);
+	if (entry != null) {
+	    entry.removeOnClose = true;
+	    unlinked.put(name, entry);
+	    lock.release();
+	    return true;
+	}
+	else if (unlinked.containsKey(name)) {
+	    lock.release();
+	    return false;
+	}
+
+	// refuse to open the name while the file system removes the file
+	entry = new Entry(name, null);
+	unlinked.put(name, entry);
+
+	lock.release();
+
+	boolean success = fileSystem.remove(name);
+
+	lock.acquire();
+	unlinked.remove(name);
+	lock.release();
+
+	return success;
+    }
+
+    /**
+     * Return the number of distinct files open.
+     *
+     * @return	the number of underlying files open.
+     */
+    public int getNumOpen() {
+	lock.acquire();
+
+	int numOpen = entries.size();
+	for (Iterator<Entry> i=unlinked.values().iterator(); i.hasNext(); ) {
+	    if (i.next().refCount > 0)
+		numOpen++;
+	}
+
+	lock.release();
+
+	return numOpen;
+    }
+
+    private int getNumOpening(String name) {
+	Integer count = opening.get(name);
+
+	return (count == null) ? 0 : count.intValue();
+    }
+
+    private void release(Entry entry) {
+	lock.acquire();
+
+	boolean last = (--entry.refCount == 0);
+	if (last && entries.get(entry.name) == entry)
+	    entries.remove(entry.name);
+
+	lock.release();
+
+	if (!last)
+	    return;
+
+	entry.file.close();
+
+	// an unlinked file keeps its place in unlinked until it is removed,
+	// so that the name cannot be opened again in the meantime
+	if (entry.removeOnClose) {
+	    fileSystem.remove(entry.name);
+
+	    lock.acquire();
+	    if (unlinked.get(entry.name) == entry)
+		unlinked.remove(entry.name);
+	    lock.release();
+	}
+    }
+
+    private static class Entry {
+	Entry(String name, OpenFile file) {
+	    this.name = name;
+	    this.file = file;
+	}
+
+	String name;
+	OpenFile file;
+	int refCount = 0;
+	boolean removeOnClose = false;
+    }
+
+    /**
+     * One open of a shared file, with its own position.
+     */
+    private class Handle extends OpenFileWithPosition {
+	Handle(Entry entry) {
+	    super(entry.file.getFileSystem(), entry.name);
+
+	    this.entry = entry;
+	}
+
+	public int read(int pos, byte[] buf, int offset, int length) {
+	    if (entry == null)
+		return -1;
+
+	    return entry.file.read(pos, buf, offset, length);
+	}
+
+	public int write(int pos, byte[] buf, int offset, int length) {
+	    if (entry == null)
+		return -1;
+
+	    return entry.file.write(pos, buf, offset, length);
+	}
+
+	public int length() {
+	    if (entry == null)
+		return -1;
+
+	    return entry.file.length();
+	}
+
+	public void close() {
+	    if (entry != null) {
+		release(entry);
+		entry = null;
+	    }
+	}
+
+	private Entry entry;
+    }
+
+    private FileSystem fileSystem;
+    private Lock lock = new Lock();
+    /** The open files, by name. */
+    private HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    /**
+     * Files that have been unlinked but are still open, or are still being
+     * removed, by name.
+     */
+    private HashMap<String, Entry> unlinked = new HashMap<String, Entry>();
+    /** The number of opens waiting for the file system, by name. */
+    private HashMap<String, Integer> opening = new HashMap<String, Integer>();
+    private Condition2 openDone = new Condition2(lock);
+}
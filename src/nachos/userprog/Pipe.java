@@ -0,0 +1,168 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A one-way byte stream between processes, held in a fixed-size ring buffer
+ * in the kernel. A pipe has a read end and a write end, each an
+ * <tt>OpenFile</tt> that can be placed in a process's descriptor table.
+ *
+ * <p>
+ * A read waits until some data is available, then returns as much as it can
+ * without waiting again; once the write end is closed and the buffer is
+ * empty, reads return 0. A write waits until all of its data is in the
+ * buffer, unless the read end is closed, in which case it returns the number
+ * of bytes written so far, or -1 if none were.
+ */
+public class Pipe {
+    /**
+     * Allocate a new pipe with both ends open.
+     */
+    public Pipe() {
+	readEnd = new End(false);
+	writeEnd = new End(true);
+    }
+
+    /**
+     * Return the read end of this pipe.
+     *
+     * @return	a file that reads from this pipe.
+     */
+    public OpenFile getReadEnd() {
+	return readEnd;
+    }
+
+    /**
+     * Return the write end of this pipe.
+     *
+     * @return	a file that writes to this pipe.
+     */
+    public OpenFile getWriteEnd() {
+	return writeEnd;
+    }
+
+    /**
+     * Test whether a file is an end of a pipe.
+     *
+     * @param	file	the file to test.
+     * @return	<tt>true</tt> if the file reads or writes a pipe.
+     */
+    public static boolean isPipeFile(OpenFile file) {
+	return (file instanceof End);
+    }
+
+    private int read(byte[] buf, int offset, int length) {
+	lock.acquire();
+
+	while (count == 0 && writerOpen)
+	    dataAvailable.sleep();
+
+	// copy at most two runs: up to the end of the ring, then from the start
+	int amount = 0;
+	while (amount < length && count > 0) {
+	    int n = Math.min(length-amount, Math.min(count, buffer.length-head));
+	    System.arraycopy(buffer, head, buf, offset+amount, n);
+	    head = (head+n) % buffer.length;
+	    count -= n;
+	    amount += n;
+	}
+
+	if (amount > 0)
+	    spaceAvailable.wakeAll();
+
+	lock.release();
+
+	return amount;
+    }
+
+    private int write(byte[] buf, int offset, int length) {
+	lock.acquire();
+
+	int amount = 0;
+	while (amount < length && readerOpen) {
+	    if (count == buffer.length) {
+		spaceAvailable.sleep();
+		continue;
+	    }
+
+	    int tail = (head+count) % buffer.length;
+	    int n = Math.min(length-amount,
+			     Math.min(buffer.length-count, buffer.length-tail));
+	    System.arraycopy(buf, offset+amount, buffer, tail, n);
+	    count += n;
+	    amount += n;
+
+	    dataAvailable.wakeAll();
+	}
+
+	lock.release();
+
+	if (amount == 0 && length > 0)
+	    return -1;
+
+	return amount;
+    }
+
+    private void close(boolean isWriteEnd) {
+	lock.acquire();
+
+	// wake everyone on the other end, so they see the close
+	if (isWriteEnd) {
+	    writerOpen = false;
+	    dataAvailable.wakeAll();
+	}
+	else {
+	    readerOpen = false;
+	    spaceAvailable.wakeAll();
+	}
+
+	lock.release();
+    }
+
+    private class End extends OpenFile {
+	End(boolean isWriteEnd) {
+	    super(null, "Pipe");
+
+	    this.isWriteEnd = isWriteEnd;
+	}
+
+	public int read(byte[] buf, int offset, int length) {
+	    if (!open || isWriteEnd)
+		return -1;
+
+	    return Pipe.this.read(buf, offset, length);
+	}
+
+	public int write(byte[] buf, int offset, int length) {
+	    if (!open || !isWriteEnd)
+		return -1;
+
+	    return Pipe.this.write(buf, offset, length);
+	}
+
+	public void close() {
+	    if (open) {
+		open = false;
+		Pipe.this.close(isWriteEnd);
+	    }
+	}
+
+	private boolean isWriteEnd;
+	private boolean open = true;
+    }
+
+    /** The number of bytes a pipe can hold. */
+    public static final int bufferSize = 4096;
+
+    private End readEnd, writeEnd;
+    private boolean readerOpen = true, writerOpen = true;
+
+    /** The buffered bytes, from <tt>head</tt>, wrapping around. */
+    private byte[] buffer = new byte[bufferSize];
+    private int head = 0, count = 0;
+
+    private Lock lock = new Lock();
+    private Condition2 dataAvailable = new Condition2(lock);
+    private Condition2 spaceAvailable = new Condition2(lock);
+}
@@ -0,0 +1,179 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * Counts the resources used by one process: the ticks it ran in user and
+ * kernel mode, the page faults and TLB misses it caused, the syscalls it
+ * made, and the bytes it read and wrote.
+ *
+ * <p>
+ * Ticks are charged only while one of the process's threads holds the
+ * processor, between <tt>resume()</tt> and <tt>pause()</tt>, which are
+ * called on every context switch. Time spent in the exception handler is
+ * kernel time; all other running time is user time, including interrupts
+ * taken while the process runs.
+ */
+public class ResourceUsage {
+    /**
+     * Allocate a new set of counters, all zero.
+     */
+    public ResourceUsage() {
+    }
+
+    /**
+     * Start charging ticks to this process. Does nothing if already
+     * charging.
+     */
+    public void resume() {
+	if (!running) {
+	    lastTime = Machine.timer().getTime();
+	    running = true;
+	}
+    }
+
+    /**
+     * Stop charging ticks to this process. Does nothing if not charging.
+     */
+    public void pause() {
+	if (running) {
+	    charge();
+	    running = false;
+	}
+    }
+
+    /**
+     * Switch to kernel mode, to handle an exception caused by the process.
+     *
+     * @param	cause	the exception, one of the
+     *			<tt>Processor.exceptionZZZ</tt> constants.
+     */
+    public void enterKernel(int cause) {
+	charge();
+	inKernel = true;
+
+	if (cause == Processor.exceptionPageFault)
+	    pageFaults++;
+	else if (cause == Processor.exceptionTLBMiss)
+	    tlbMisses++;
+    }
+
+    /**
+     * Switch back to user mode.
+     */
+    public void exitKernel() {
+	charge();
+	inKernel = false;
+    }
+
+    /**
+     * Count a syscall.
+     *
+     * @param	syscall	the syscall number.
+     */
+    public void countSyscall(int syscall) {
+	if (syscall >= 0 && syscall < numSyscalls)
+	    syscalls[syscall]++;
+    }
+
+    /**
+     * Count bytes read by a syscall.
+     *
+     * @param	amount	the number of bytes read.
+     * @param	console	<tt>true</tt> if they were read from the console.
+     */
+    public void countRead(int amount, boolean console) {
+	bytesRead += amount;
+	if (console)
+	    consoleBytesRead += amount;
+    }
+
+    /**
+     * Count bytes written by a syscall.
+     *
+     * @param	amount	the number of bytes written.
+     * @param	console	<tt>true</tt> if they were written to the console.
+     */
+    public void countWrite(int amount, boolean console) {
+	bytesWritten += amount;
+	if (console)
+	    consoleBytesWritten += amount;
+    }
+
+    private void charge() {
+	if (!running)
+	    return;
+
+	long time = Machine.timer().getTime();
+	if (inKernel)
+	    kernelTicks += time - lastTime;
+	else
+	    userTicks += time - lastTime;
+	lastTime = time;
+    }
+
+    /**
+     * Return the counters as the <tt>struct rusage</tt> of
+     * <tt>syscall.h</tt>: <tt>recordSize</tt> bytes of little-endian
+     * integers, each capped at <tt>Integer.MAX_VALUE</tt>.
+     *
+     * @return	the counters, in the layout a user program expects.
+     */
+    public byte[] toBytes() {
+	charge();
+
+	long[] fields = {
+	    userTicks, kernelTicks, pageFaults, tlbMisses,
+	    bytesRead, bytesWritten, consoleBytesRead, consoleBytesWritten
+	};
+
+	byte[] data = new byte[recordSize];
+	for (int i=0; i<fields.length; i++)
+	    Lib.bytesFromInt(data, i*4, (int) Math.min(fields[i],
+							Integer.MAX_VALUE));
+	for (int i=0; i<numSyscalls; i++)
+	    Lib.bytesFromInt(data, (fields.length+i)*4, syscalls[i]);
+
+	return data;
+    }
+
+    /**
+     * Return a summary of the counters.
+     *
+     * @return	the counters, on three lines.
+     */
+    public String toString() {
+	charge();
+
+	String calls = "";
+	for (int i=0; i<numSyscalls; i++) {
+	    if (syscalls[i] > 0) {
+		calls += (calls.length() == 0) ? " " : ", ";
+		calls += SyscallTrace.syscallName(i) + " " + syscalls[i];
+	    }
+	}
+
+	return "ticks user " + userTicks + ", kernel " + kernelTicks
+	    + "\n\tsyscalls:" + ((calls.length() == 0) ? " none" : calls)
+	    + "\n\tI/O: read " + bytesRead + ", wrote " + bytesWritten
+	    + " (console " + consoleBytesRead + ", " + consoleBytesWritten
+	    + "); page faults " + pageFaults + ", TLB misses " + tlbMisses;
+    }
+
+    /** The number of syscall numbers counted separately. */
+    public static final int numSyscalls = 32;
+
+    /** The size of a <tt>struct rusage</tt>, in bytes. */
+    public static final int recordSize = (8 + numSyscalls) * 4;
+
+    private boolean running = false;
+    private boolean inKernel = false;
+    private long lastTime;
+
+    private long userTicks = 0, kernelTicks = 0;
+    private int pageFaults = 0, tlbMisses = 0;
+    private long bytesRead = 0, bytesWritten = 0;
+    private long consoleBytesRead = 0, consoleBytesWritten = 0;
+    private int[] syscalls = new int[numSyscalls];
+}
@@ -7,6 +7,18 @@ import nachos.userprog.*;
 /**
  * Provides a simple, synchronized interface to the machine's console. The
  * interface can also be accessed through <tt>OpenFile</tt> objects.
+ *
+ * <p>
+ * Output is buffered: writers copy their bytes into a ring buffer and
+ * return, and the console's send interrupt starts the next buffered byte as
+ * soon as the previous one is done, so the device is kept busy without a
+ * thread switch per byte. <tt>flush()</tt> waits for the buffer to drain.
+ *
+ * <p>
+ * Input is taken from the device as soon as it arrives and buffered. In
+ * canonical mode, typed characters are echoed and collected into a line
+ * that can be edited with backspace and ^U, and only complete lines are
+ * passed on to readers, who receive a whole line at a time.
  */
 public class SynchConsole {
     /**
@@ -37,23 +49,115 @@ public class SynchConsole {
      *		and no byte was available.
      */
     public int readByte(boolean block) {
-	int value;
+	readLock.acquire();
 	boolean intStatus = Machine.interrupt().disable();	
+
+	if (block)
+	    waitForInput();
+
+	int value = (inCount > 0) ? takeInput() : -1;
+
+	Machine.interrupt().restore(intStatus);
+	readLock.release();
+	return value;
+    }
+
+    /**
+     * Return the next unsigned byte received, waiting at most
+     * <i>timeoutTicks</i> clock ticks for one to arrive.
+     *
+     * @param	timeoutTicks	the most clock ticks to wait.
+     * @return	the next byte read, or -1 if no byte arrived in time.
+     */
+    public int readByte(long timeoutTicks) {
 	readLock.acquire();
+	boolean intStatus = Machine.interrupt().disable();
 
-	if (block || charAvailable) {
-	    charAvailable = false;
-	    readWait.P();
+	long deadline = Machine.timer().getTime() + timeoutTicks;
+	while (inCount == 0) {
+	    long remaining = deadline - Machine.timer().getTime();
+	    if (remaining <= 0)
+		break;
 
-	    value = console.readByte();
-	    Lib.assertTrue(value != -1);
-	}
-	else {
-	    value = -1;
+	    waitingForInput = true;
+	    inputWait.tryP(remaining);
 	}
 
+	int value = (inCount > 0) ? takeInput() : -1;
+
+	Machine.interrupt().restore(intStatus);
 	readLock.release();
+	return value;
+    }
+
+    /**
+     * Read buffered input into the specified array. In canonical mode, waits
+     * for a complete line and reads no further than its end; otherwise,
+     * reads only what has already arrived.
+     *
+     * @param	buf	the array where the bytes will be stored.
+     * @param	offset	the first byte to store.
+     * @param	length	the most bytes to read.
+     * @return	the number of bytes read.
+     */
+    public int read(byte[] buf, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= buf.length);
+
+	readLock.acquire();
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (canonical && length > 0)
+	    waitForInput();
+
+	int amount = 0;
+	while (amount < length && inCount > 0) {
+	    byte value = (byte) takeInput();
+	    buf[offset + amount++] = value;
+	    if (canonical && value == '\n')
+		break;
+	}
+
 	Machine.interrupt().restore(intStatus);
+	readLock.release();
+	return amount;
+    }
+
+    /**
+     * Turn the line discipline on or off. Any partly edited line is kept, and
+     * passed on when it is finished.
+     *
+     * @param	canonical	<tt>true</tt> to collect and echo input a line
+     *				at a time; <tt>false</tt> to pass each byte
+     *				on as it arrives.
+     */
+    public void setCanonical(boolean canonical) {
+	this.canonical = canonical;
+    }
+
+    /**
+     * Test whether the line discipline is on.
+     *
+     * @return	<tt>true</tt> if input is passed on a line at a time.
+     */
+    public boolean isCanonical() {
+	return canonical;
+    }
+
+    /**
+     * Sleep until some input is buffered. Called with interrupts disabled
+     * and <tt>readLock</tt> held, so there is at most one waiting reader.
+     */
+    private void waitForInput() {
+	while (inCount == 0) {
+	    waitingForInput = true;
+	    inputWait.P();
+	}
+    }
+
+    private int takeInput() {
+	int value = inBuffer[inHead] & 0xFF;
+	inHead = (inHead+1) % inBuffer.length;
+	inCount--;
 	return value;
     }
 
@@ -67,22 +171,155 @@ public class SynchConsole {
     }
 
     private void receiveInterrupt() {
-	charAvailable = true;
-	readWait.V();
+	int value = console.readByte();
+	if (value == -1)
+	    return;
+
+	if (canonical)
+	    editLine((byte) value);
+	else
+	    putInput((byte) value);
     }
 
     /**
-     * Send a byte. Blocks until the send is complete.
+     * Apply the line discipline to a received byte. Called with interrupts
+     * disabled.
+     */
+    private void editLine(byte value) {
+	switch (value) {
+	case '\r':
+	case '\n':
+	    lineBuffer[lineLength++] = '\n';
+	    echo((byte) '\n');
+	    for (int i=0; i<lineLength; i++)
+		putInput(lineBuffer[i]);
+	    lineLength = 0;
+	    break;
+
+	case charBackspace:
+	    eraseLine(1);
+	    break;
+
+	case charKill:
+	    eraseLine(lineLength);
+	    break;
+
+	default:
+	    // keep room for the newline
+	    if (value < 0x20 || lineLength == lineBuffer.length-1) {
+		echo(charBell);
+	    }
+	    else {
+		lineBuffer[lineLength++] = value;
+		echo(value);
+	    }
+	    break;
+	}
+    }
+
+    private void eraseLine(int count) {
+	for (; count > 0 && lineLength > 0; count--) {
+	    lineLength--;
+	    echo(charBackspace);
+	    echo((byte) ' ');
+	    echo(charBackspace);
+	}
+    }
+
+    /**
+     * Pass a byte on to readers, waking the waiting reader if any. Called
+     * with interrupts disabled.
+     */
+    private void putInput(byte value) {
+	if (inCount == inBuffer.length)
+	    return;
+
+	inBuffer[(inHead + inCount) % inBuffer.length] = value;
+	inCount++;
+
+	if (waitingForInput) {
+	    waitingForInput = false;
+	    inputWait.V();
+	}
+    }
+
+    /**
+     * Queue an echoed byte for output. Called with interrupts disabled, so it
+     * must not block; the byte is dropped if the output buffer is full.
+     */
+    private void echo(byte value) {
+	if (outCount == outBuffer.length)
+	    return;
+
+	outBuffer[(outHead + outCount) % outBuffer.length] = value;
+	outCount++;
+
+	if (!sending)
+	    sendNext();
+    }
+
+    /**
+     * Send a byte. Returns once the byte is buffered.
      *
      * @param	value	the byte to be sent (the upper 24 bits are ignored).
      */
     public void writeByte(int value) {
+	write(new byte[] { (byte) value }, 0, 1);
+    }
+
+    /**
+     * Send bytes from the specified array. Returns once they are all
+     * buffered, blocking only while the buffer is full. The bytes of one
+     * call are not interleaved with those of any other.
+     *
+     * @param	buf	the array holding the bytes.
+     * @param	offset	the first byte to send.
+     * @param	length	the number of bytes to send.
+     */
+    public void write(byte[] buf, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= buf.length);
+
 	writeLock.acquire();
-	console.writeByte(value);
-	writeWait.P();
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (length > 0) {
+	    if (outCount == outBuffer.length) {
+		waitingForSpace = true;
+		spaceWait.P();
+		continue;
+	    }
+
+	    // copy up to the end of the free space, or of the array
+	    int tail = (outHead + outCount) % outBuffer.length;
+	    int n = Math.min(length, Math.min(outBuffer.length - outCount,
+					      outBuffer.length - tail));
+	    System.arraycopy(buf, offset, outBuffer, tail, n);
+	    outCount += n;
+	    offset += n;
+	    length -= n;
+
+	    if (!sending)
+		sendNext();
+	}
+
+	Machine.interrupt().restore(intStatus);
 	writeLock.release();
     }
 
+    /**
+     * Wait until every buffered byte has been sent.
+     */
+    public void flush() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (sending) {
+	    drainWaiters++;
+	    drainWait.P();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
     /**
      * Return an <tt>OpenFile</tt> that can be used to write this as a file.
      *
@@ -92,17 +329,76 @@ public class SynchConsole {
 	return new File(false, true);
     }
 
+    /**
+     * Test whether a file was returned by <tt>openForReading()</tt> or
+     * <tt>openForWriting()</tt>.
+     *
+     * @param	file	the file to test.
+     * @return	<tt>true</tt> if the file reads or writes this console.
+     */
+    public boolean isConsoleFile(OpenFile file) {
+	return (file instanceof File) && ((File) file).getConsole() == this;
+    }
+
     private void sendInterrupt() {
-	writeWait.V();
+	sending = false;
+
+	if (outCount > 0)
+	    sendNext();
+
+	if (waitingForSpace) {
+	    waitingForSpace = false;
+	    spaceWait.V();
+	}
+
+	if (!sending) {
+	    for (; drainWaiters > 0; drainWaiters--)
+		drainWait.V();
+	}
     }
 
-    private boolean charAvailable = false;
+    /**
+     * Start sending the next buffered byte. Called with interrupts disabled.
+     */
+    private void sendNext() {
+	console.writeByte(outBuffer[outHead]);
+	outHead = (outHead+1) % outBuffer.length;
+	outCount--;
+	sending = true;
+    }
+
+    private static final byte
+	charBackspace = 0x08,
+	charKill = 0x15,
+	charBell = 0x07;
 
     private SerialConsole console;
     private Lock readLock = new Lock();
     private Lock writeLock = new Lock();
-    private Semaphore readWait = new Semaphore(0);
-    private Semaphore writeWait = new Semaphore(0);
+
+    private static final int inputBufferSize = 1024, maxLineLength = 256;
+
+    /** Input ready for readers, from <tt>inHead</tt>, wrapping around. */
+    private byte[] inBuffer = new byte[inputBufferSize];
+    private int inHead = 0, inCount = 0;
+    private boolean waitingForInput = false;
+    private Semaphore inputWait = new Semaphore(0);
+    private boolean canonical = false;
+    /** The line being edited in canonical mode. */
+    private byte[] lineBuffer = new byte[maxLineLength];
+    private int lineLength = 0;
+
+    private static final int outputBufferSize = 1024;
+
+    /** The buffered output, from <tt>outHead</tt>, wrapping around. */
+    private byte[] outBuffer = new byte[outputBufferSize];
+    private int outHead = 0, outCount = 0;
+    /** <tt>true</tt> while the device is sending a byte. */
+    private boolean sending = false;
+    private boolean waitingForSpace = false;
+    private Semaphore spaceWait = new Semaphore(0);
+    private int drainWaiters = 0;
+    private Semaphore drainWait = new Semaphore(0);
 
     private class File extends OpenFile {
 	File(boolean canRead, boolean canWrite) {
@@ -116,28 +412,22 @@ public class SynchConsole {
 	    canRead = canWrite = false;
 	}
 
+	SynchConsole getConsole() {
+	    return SynchConsole.this;
+	}
+
 	public int read(byte[] buf, int offset, int length) {
 	    if (!canRead)
 		return 0;
 
-	    int i;
-	    for (i=0; i<length; i++) {
-		int value = SynchConsole.this.readByte(false);
-		if (value == -1)
-		    break;
-		
-		buf[offset+i] = (byte) value;
-	    }
-
-	    return i;
+	    return SynchConsole.this.read(buf, offset, length);
 	}
 
 	public int write(byte[] buf, int offset, int length) {
 	    if (!canWrite)
 		return 0;
 	    
-	    for (int i=0; i<length; i++)
-		SynchConsole.this.writeByte(buf[offset+i]);
+	    SynchConsole.this.write(buf, offset, length);
 	    
 	    return length;
 	}
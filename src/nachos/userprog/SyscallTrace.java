@@ -0,0 +1,238 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * Records the system calls made by one process, like <tt>strace</tt>.
+ *
+ * <p>
+ * Tracing is enabled by setting the <tt>nachos.conf</tt> key
+ * <tt>UserProcess.syscallTrace</tt> to the number of calls to keep for each
+ * process. The most recent calls are kept in a ring of preallocated
+ * primitive arrays, so recording a call never allocates; older calls are
+ * overwritten, but still counted in the per-syscall latency histograms.
+ * These are also allocated up front, one for each of the first
+ * <tt>numSyscalls</tt> syscall numbers; calls with larger numbers are kept
+ * in the ring only.
+ *
+ * <p>
+ * When a process exits, its summary is printed, followed by the recorded
+ * calls: as text, or, if the key <tt>UserProcess.syscallTraceFile</tt> names
+ * a file, written to that file with the process ID appended to its name.
+ * Each call in the file is a record of <tt>recordSize</tt> bytes:
+ *
+ * <p><blockquote><pre>
+ * int   tick		simulated time the call started, truncated to 32 bits
+ * int   pid		the process ID
+ * int   syscall	the syscall number
+ * int   a0 .. a3	the arguments
+ * int   result		the value returned
+ * int   ticks		simulated ticks the call took
+ * </pre></blockquote>
+ *
+ * <p>
+ * All integers are little-endian, as produced by
+ * <tt>Lib.bytesFromInt()</tt>, and the file starts with the four bytes of
+ * <tt>magic</tt>.
+ */
+public class SyscallTrace {
+    /**
+     * Allocate a new trace for a process.
+     *
+     * @param	pid		the ID of the traced process.
+     * @param	capacity	the number of calls to keep.
+     */
+    public SyscallTrace(int pid, int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	this.pid = pid;
+
+	startTimes = new long[capacity];
+	syscalls = new int[capacity];
+	args = new int[capacity*4];
+	results = new int[capacity];
+	durations = new int[capacity];
+
+	latencies = new LatencyHistogram[numSyscalls];
+	for (int i=0; i<numSyscalls; i++)
+	    latencies[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Return a new trace for a process if tracing is enabled.
+     *
+     * @param	pid	the ID of the process.
+     * @return	a new trace, or <tt>null</tt> if tracing is disabled.
+     */
+    public static SyscallTrace forProcess(int pid) {
+	int capacity = Config.getInteger("UserProcess.syscallTrace", 0);
+
+	return (capacity > 0) ? new SyscallTrace(pid, capacity) : null;
+    }
+
+    /**
+     * Record one system call.
+     *
+     * @param	startTime	the time the call started.
+     * @param	syscall		the syscall number.
+     * @param	a0		the first argument.
+     * @param	a1		the second argument.
+     * @param	a2		the third argument.
+     * @param	a3		the fourth argument.
+     * @param	result		the value returned.
+     */
+    public void record(long startTime, int syscall, int a0, int a1, int a2,
+		       int a3, int result) {
+	long ticks = Math.min(Machine.timer().getTime() - startTime,
+			      Integer.MAX_VALUE);
+
+	int slot = (int) (numRecorded % syscalls.length);
+	startTimes[slot] = startTime;
+	syscalls[slot] = syscall;
+	args[slot*4] = a0;
+	args[slot*4+1] = a1;
+	args[slot*4+2] = a2;
+	args[slot*4+3] = a3;
+	results[slot] = result;
+	durations[slot] = (int) ticks;
+	numRecorded++;
+
+	if (syscall >= 0 && syscall < numSyscalls)
+	    latencies[syscall].record(ticks);
+    }
+
+    /**
+     * Print the number of calls of each syscall, and their latencies.
+     */
+    public void printSummary() {
+	System.out.println("Syscalls of process " + pid + ": " + numRecorded
+			   + " calls");
+
+	for (int i=0; i<latencies.length; i++) {
+	    if (latencies[i].getCount() > 0)
+		System.out.println("\t" + syscallName(i) + ": " + latencies[i]);
+	}
+    }
+
+    /**
+     * Print the recorded calls, oldest first.
+     */
+    public void printRecords() {
+	for (long n=firstKept(); n<numRecorded; n++) {
+	    int slot = (int) (n % syscalls.length);
+
+	    System.out.println(startTimes[slot] + " [" + pid + "] "
+			       + syscallName(syscalls[slot]) + "("
+			       + args[slot*4] + ", " + args[slot*4+1] + ", "
+			       + args[slot*4+2] + ", " + args[slot*4+3]
+			       + ") = " + results[slot]
+			       + " <" + durations[slot] + ">");
+	}
+    }
+
+    /**
+     * Write the recorded calls, oldest first, to a file. The file system may
+     * put the current thread to sleep.
+     *
+     * @param	fileName	the name of the file to write.
+     * @return	<tt>true</tt> if the file was written.
+     */
+    public boolean writeFile(String fileName) {
+	OpenFile file = ThreadedKernel.fileSystem.open(fileName, true);
+	if (file == null)
+	    return false;
+
+	int kept = (int) (numRecorded - firstKept());
+	byte[] data = new byte[magic.length + kept*recordSize];
+	System.arraycopy(magic, 0, data, 0, magic.length);
+
+	int offset = magic.length;
+	for (long n=firstKept(); n<numRecorded; n++) {
+	    int slot = (int) (n % syscalls.length);
+
+	    Lib.bytesFromInt(data, offset, (int) startTimes[slot]);
+	    Lib.bytesFromInt(data, offset+4, pid);
+	    Lib.bytesFromInt(data, offset+8, syscalls[slot]);
+	    for (int i=0; i<4; i++)
+		Lib.bytesFromInt(data, offset+12+i*4, args[slot*4+i]);
+	    Lib.bytesFromInt(data, offset+28, results[slot]);
+	    Lib.bytesFromInt(data, offset+32, durations[slot]);
+	    offset += recordSize;
+	}
+
+	boolean success = (file.write(data, 0, data.length) == data.length);
+	file.close();
+
+	return success;
+    }
+
+    /**
+     * Print the summary and the recorded calls, writing the calls to the
+     * configured trace file if there is one. Called when the process exits.
+     */
+    public void dump() {
+	printSummary();
+
+	String fileName = Config.getString("UserProcess.syscallTraceFile");
+	if (fileName == null)
+	    printRecords();
+	else if (!writeFile(fileName + "." + pid))
+	    System.out.println("Syscall trace: could not write " + fileName
+			       + "." + pid);
+    }
+
+    /**
+     * Return the number of calls recorded, including those overwritten.
+     *
+     * @return	the number of calls recorded.
+     */
+    public long getNumRecorded() {
+	return numRecorded;
+    }
+
+    private long firstKept() {
+	return Math.max(0, numRecorded - syscalls.length);
+    }
+
+    /**
+     * Return the name of a syscall, or its number if it has no name.
+     *
+     * @param	syscall	the syscall number.
+     * @return	the name of the syscall.
+     */
+    public static String syscallName(int syscall) {
+	if (syscall >= 0 && syscall < syscallNames.length)
+	    return syscallNames[syscall];
+
+	return "syscall" + syscall;
+    }
+
+    private static final String[] syscallNames = {
+	"halt", "exit", "exec", "join", "creat", "open", "read", "write",
+	"close", "unlink", "mmap", "connect", "accept", "pipe", "getrusage",
+	"aio_read", "aio_write", "aio_wait"
+    };
+
+    /** The number of syscall numbers given latency histograms. */
+    public static final int numSyscalls = ResourceUsage.numSyscalls;
+
+    /** The size of one call record, in bytes. */
+    public static final int recordSize = 36;
+
+    /** The first bytes of every trace file. */
+    public static final byte[] magic = { 'N', 'S', 'C', '1' };
+
+    private int pid;
+    private long numRecorded = 0;
+
+    private long[] startTimes;
+    private int[] syscalls;
+    /** The four arguments of each call, in consecutive elements. */
+    private int[] args;
+    private int[] results;
+    private int[] durations;
+
+    /** The latencies of each syscall number, allocated up front. */
+    private LatencyHistogram[] latencies;
+}
@@ -22,6 +22,10 @@ public class UThread extends KThread {
 	    });
 
 	this.process = process;
+
+	boolean intStatus = Machine.interrupt().disable();
+	ThreadedKernel.scheduler.setGroup(this, process);
+	Machine.interrupt().restore(intStatus);
     }
 
     private void runProgram() {
@@ -16,13 +16,19 @@ public class UserKernel extends ThreadedKernel {
     }
 
     /**
-     * Initialize this kernel. Creates a synchronized console and sets the
-     * processor's exception handler.
+     * Initialize this kernel. Creates a synchronized console, a physical
+     * frame allocator and the open-file table, and sets the processor's
+     * exception handler.
      */
     public void initialize(String[] args) {
 	super.initialize(args);
 
 	console = new SynchConsole(Machine.console());
+	console.setCanonical(Config.getBoolean("UserKernel.canonicalConsole",
+					       false));
+	frameAllocator =
+	    new FrameAllocator(Machine.processor().getNumPhysPages());
+	openFileTable = new OpenFileTable(fileSystem);
 	
 	Machine.processor().setExceptionHandler(new Runnable() {
 		public void run() { exceptionHandler(); }
@@ -39,6 +45,8 @@ public class UserKernel extends ThreadedKernel {
 	System.out.println("will be echoed until q is typed.");
 
 	char c;
+	boolean canonical = console.isCanonical();
+	console.setCanonical(false);
 
 	do {
 	    c = (char) console.readByte(true);
@@ -46,6 +54,8 @@ public class UserKernel extends ThreadedKernel {
 	}
 	while (c != 'q');
 
+	console.setCanonical(canonical);
+	console.flush();
 	System.out.println("");
     }
 
@@ -79,7 +89,10 @@ public class UserKernel extends ThreadedKernel {
 
 	UserProcess process = ((UThread) KThread.currentThread()).process;
 	int cause = Machine.processor().readRegister(Processor.regCause);
+
+	process.usage.enterKernel(cause);
 	process.handleException(cause);
+	process.usage.exitKernel();
     }
 
     /**
@@ -101,15 +114,24 @@ public class UserKernel extends ThreadedKernel {
     }
 
     /**
-     * Terminate this kernel. Never returns.
+     * Terminate this kernel, once the console has sent its buffered output.
+     * Never returns.
      */
     public void terminate() {
+	console.flush();
+
 	super.terminate();
     }
 
     /** Globally accessible reference to the synchronized console. */
     public static SynchConsole console;
 
+    /** Globally accessible reference to the physical frame allocator. */
+    public static FrameAllocator frameAllocator;
+
+    /** Globally accessible reference to the system open-file table. */
+    public static OpenFileTable openFileTable;
+
     // dummy variables to make javac smarter
     private static Coff dummy1 = null;
 }
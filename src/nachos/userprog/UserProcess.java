@@ -23,10 +23,16 @@ public class UserProcess {
      * Allocate a new process.
      */
     public UserProcess() {
-	int numPhysPages = Machine.processor().getNumPhysPages();
-	pageTable = new TranslationEntry[numPhysPages];
-	for (int i=0; i<numPhysPages; i++)
-	    pageTable[i] = new TranslationEntry(i,i, true,false,false,false);
+	boolean intStatus = Machine.interrupt().disable();
+	processID = nextProcessID++;
+	Machine.interrupt().restore(intStatus);
+
+	trace = SyscallTrace.forProcess(processID);
+
+	pageTable = new TranslationEntry[0];
+
+	fileTable[0] = UserKernel.console.openForReading();
+	fileTable[1] = UserKernel.console.openForWriting();
     }
     
     /**
@@ -49,8 +55,17 @@ public class UserProcess {
      * @return	<tt>true</tt> if the program was successfully executed.
      */
     public boolean execute(String name, String[] args) {
-	if (!load(name, args))
+	// count the process while it loads, so another cannot exit as the last
+	boolean intStatus = Machine.interrupt().disable();
+	numProcesses++;
+	Machine.interrupt().restore(intStatus);
+
+	if (!load(name, args)) {
+	    intStatus = Machine.interrupt().disable();
+	    numProcesses--;
+	    Machine.interrupt().restore(intStatus);
 	    return false;
+	}
 	
 	new UThread(this).setName(name).fork();
 
@@ -62,6 +77,7 @@ public class UserProcess {
      * Called by <tt>UThread.saveState()</tt>.
      */
     public void saveState() {
+	usage.pause();
     }
 
     /**
@@ -70,6 +86,8 @@ public class UserProcess {
      */
     public void restoreState() {
 	Machine.processor().setPageTable(pageTable);
+
+	usage.resume();
     }
 
     /**
@@ -89,13 +107,32 @@ public class UserProcess {
     public String readVirtualMemoryString(int vaddr, int maxLength) {
 	Lib.assertTrue(maxLength >= 0);
 
-	byte[] bytes = new byte[maxLength+1];
+	byte[] memory = Machine.processor().getMemory();
 
-	int bytesRead = readVirtualMemory(vaddr, bytes);
+	// scan for the terminator one page at a time, straight from memory
+	int length = 0;
+	while (length <= maxLength) {
+	    TranslationEntry entry = pageFor(vaddr+length, false);
+	    if (entry == null)
+		return null;
+
+	    int pageOffset = Processor.offsetFromAddress(vaddr+length);
+	    int paddr = entry.ppn*pageSize + pageOffset;
+	    int n = Math.min(maxLength+1-length, pageSize-pageOffset);
+
+	    for (int i=0; i<n; i++) {
+		if (memory[paddr+i] == 0) {
+		    // most strings fit in the page they start on
+		    if (length == 0)
+			return new String(memory, paddr, i);
+
+		    byte[] bytes = new byte[length+i];
+		    readVirtualMemory(vaddr, bytes);
+		    return new String(bytes);
+		}
+	    }
 
-	for (int length=0; length<bytesRead; length++) {
-	    if (bytes[length] == 0)
-		return new String(bytes, 0, length);
+	    length += n;
 	}
 
 	return null;
@@ -132,13 +169,20 @@ public class UserProcess {
 	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= data.length);
 
 	byte[] memory = Machine.processor().getMemory();
-	
-	// for now, just assume that virtual addresses equal physical addresses
-	if (vaddr < 0 || vaddr >= memory.length)
-	    return 0;
 
-	int amount = Math.min(length, memory.length-vaddr);
-	System.arraycopy(memory, vaddr, data, offset, amount);
+	// copy the run within each page with one arraycopy
+	int amount = 0;
+	while (amount < length) {
+	    TranslationEntry entry = pageFor(vaddr+amount, false);
+	    if (entry == null)
+		break;
+
+	    int pageOffset = Processor.offsetFromAddress(vaddr+amount);
+	    int n = Math.min(length-amount, pageSize-pageOffset);
+	    System.arraycopy(memory, entry.ppn*pageSize + pageOffset,
+			     data, offset+amount, n);
+	    amount += n;
+	}
 
 	return amount;
     }
@@ -175,17 +219,72 @@ public class UserProcess {
 	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= data.length);
 
 	byte[] memory = Machine.processor().getMemory();
-	
-	// for now, just assume that virtual addresses equal physical addresses
-	if (vaddr < 0 || vaddr >= memory.length)
-	    return 0;
 
-	int amount = Math.min(length, memory.length-vaddr);
-	System.arraycopy(data, offset, memory, vaddr, amount);
+	// copy the run within each page with one arraycopy
+	int amount = 0;
+	while (amount < length) {
+	    TranslationEntry entry = pageFor(vaddr+amount, true);
+	    if (entry == null)
+		break;
+
+	    int pageOffset = Processor.offsetFromAddress(vaddr+amount);
+	    int n = Math.min(length-amount, pageSize-pageOffset);
+	    System.arraycopy(data, offset+amount,
+			     memory, entry.ppn*pageSize + pageOffset, n);
+	    amount += n;
+	}
 
 	return amount;
     }
 
+    /**
+     * Test whether every byte of a range of virtual memory can be written.
+     *
+     * @param	vaddr	the first byte of the range.
+     * @param	length	the number of bytes in the range.
+     * @return	<tt>true</tt> if the whole range is mapped and writable.
+     */
+    private boolean isWritable(int vaddr, int length) {
+	int amount = 0;
+	while (amount < length) {
+	    if (pageFor(vaddr+amount, true) == null)
+		return false;
+
+	    amount += pageSize - Processor.offsetFromAddress(vaddr+amount);
+	}
+
+	return true;
+    }
+
+    /**
+     * Look up the page containing a virtual address, and mark it used (and
+     * dirty, if it is being written), as the processor would.
+     *
+     * @param	vaddr	a virtual address.
+     * @param	write	<tt>true</tt> if the page is about to be written.
+     * @return	the page's translation entry, or <tt>null</tt> if the address
+     *		is not mapped, or the page is read-only and <i>write</i> is
+     *		set.
+     */
+    protected TranslationEntry pageFor(int vaddr, boolean write) {
+	if (vaddr < 0)
+	    return null;
+
+	int vpn = Processor.pageFromAddress(vaddr);
+	if (vpn >= pageTable.length)
+	    return null;
+
+	TranslationEntry entry = pageTable[vpn];
+	if (!entry.valid || (write && entry.readOnly))
+	    return null;
+
+	entry.used = true;
+	if (write)
+	    entry.dirty = true;
+
+	return entry;
+    }
+
     /**
      * Load the executable with the specified name into this process, and
      * prepare to pass it the specified arguments. Opens the executable, reads
@@ -282,12 +381,20 @@ public class UserProcess {
      * @return	<tt>true</tt> if the sections were successfully loaded.
      */
     protected boolean loadSections() {
-	if (numPages > Machine.processor().getNumPhysPages()) {
+	// the frames need not be contiguous, but we need all of them
+	int[] frames = new int[numPages];
+	if (!UserKernel.frameAllocator.allocate(this, frames)) {
 	    coff.close();
 	    Lib.debug(dbgProcess, "\tinsufficient physical memory");
 	    return false;
 	}
 
+	pageTable = new TranslationEntry[numPages];
+	for (int vpn=0; vpn<numPages; vpn++) {
+	    pageTable[vpn] =
+		new TranslationEntry(vpn, frames[vpn], true,false,false,false);
+	}
+
 	// load sections
 	for (int s=0; s<coff.getNumSections(); s++) {
 	    CoffSection section = coff.getSection(s);
@@ -298,8 +405,8 @@ public class UserProcess {
 	    for (int i=0; i<section.getLength(); i++) {
 		int vpn = section.getFirstVPN()+i;
 
-		// for now, just assume virtual addresses=physical addresses
-		section.loadPage(i, vpn);
+		pageTable[vpn].readOnly = section.isReadOnly();
+		section.loadPage(i, pageTable[vpn].ppn);
 	    }
 	}
 	
@@ -310,6 +417,14 @@ public class UserProcess {
      * Release any resources allocated by <tt>loadSections()</tt>.
      */
     protected void unloadSections() {
+	for (int vpn=0; vpn<pageTable.length; vpn++) {
+	    if (pageTable[vpn].valid) {
+		UserKernel.frameAllocator.free(pageTable[vpn].ppn);
+		pageTable[vpn].valid = false;
+	    }
+	}
+
+	coff.close();
     }    
 
     /**
@@ -339,13 +454,354 @@ public class UserProcess {
      * Handle the halt() system call. 
      */
     private int handleHalt() {
+	if (trace != null)
+	    trace.record(syscallStartTime, syscallHalt, 0, 0, 0, 0, 0);
+
+	// let the process's buffered console output come before the reports
+	UserKernel.console.flush();
 
-	Machine.halt();
+	if (trace != null)
+	    trace.dump();
+	printUsage();
+
+	Kernel.kernel.terminate();
 	
-	Lib.assertNotReached("Machine.halt() did not halt machine!");
+	Lib.assertNotReached("Kernel.terminate() did not halt machine!");
 	return 0;
     }
 
+    /**
+     * Handle the exit() system call. Releases this process's memory and
+     * finishes its thread; the last process to exit halts the machine.
+     */
+    private int handleExit(int status) {
+	Lib.debug(dbgProcess, "UserProcess.exit(" + status + ")");
+
+	// the I/O worker must be done with our memory before it is freed
+	if (aio != null)
+	    aio.drain();
+
+	if (trace != null)
+	    trace.record(syscallStartTime, syscallExit, status, 0, 0, 0, 0);
+
+	// let the process's buffered console output come before the reports
+	UserKernel.console.flush();
+
+	if (trace != null)
+	    trace.dump();
+	printUsage();
+
+	for (int fd=0; fd<fileTable.length; fd++) {
+	    if (fileTable[fd] != null) {
+		fileTable[fd].close();
+		fileTable[fd] = null;
+	    }
+	}
+
+	unloadSections();
+
+	boolean intStatus = Machine.interrupt().disable();
+	boolean last = (--numProcesses == 0);
+	Machine.interrupt().restore(intStatus);
+
+	if (last)
+	    Kernel.kernel.terminate();
+
+	KThread.finish();
+
+	Lib.assertNotReached("KThread.finish() returned!");
+	return 0;
+    }
+
+    /**
+     * Handle the creat() and open() system calls.
+     */
+    private int handleOpen(int nameAddr, boolean create) {
+	String name = readVirtualMemoryString(nameAddr, maxNameLength);
+	if (name == null)
+	    return -1;
+
+	int fd = freeDescriptor();
+	if (fd == -1)
+	    return -1;
+
+	OpenFile file = UserKernel.openFileTable.open(name, create);
+	if (file == null)
+	    return -1;
+
+	fileTable[fd] = file;
+	return fd;
+    }
+
+    /**
+     * Handle the pipe() system call. Both ends go in this process's
+     * descriptor table; until <tt>exec()</tt> passes descriptors on, no
+     * other process can use them.
+     */
+    private int handlePipe(int fdsAddr) {
+	Pipe pipe = new Pipe();
+
+	int readFd = freeDescriptor();
+	if (readFd == -1) {
+	    pipe.getReadEnd().close();
+	    pipe.getWriteEnd().close();
+	    return -1;
+	}
+	fileTable[readFd] = pipe.getReadEnd();
+
+	int writeFd = freeDescriptor();
+	if (writeFd == -1) {
+	    fileTable[readFd].close();
+	    fileTable[readFd] = null;
+	    pipe.getWriteEnd().close();
+	    return -1;
+	}
+	fileTable[writeFd] = pipe.getWriteEnd();
+
+	byte[] fds = new byte[8];
+	Lib.bytesFromInt(fds, 0, readFd);
+	Lib.bytesFromInt(fds, 4, writeFd);
+	if (writeVirtualMemory(fdsAddr, fds) != fds.length) {
+	    fileTable[readFd].close();
+	    fileTable[writeFd].close();
+	    fileTable[readFd] = fileTable[writeFd] = null;
+	    return -1;
+	}
+
+	return 0;
+    }
+
+    /**
+     * Return the lowest unused file descriptor, or -1 if there is none.
+     */
+    private int freeDescriptor() {
+	for (int fd=0; fd<fileTable.length; fd++) {
+	    if (fileTable[fd] == null)
+		return fd;
+	}
+
+	return -1;
+    }
+
+    /**
+     * Handle the close() system call.
+     */
+    private int handleClose(int fd) {
+	OpenFile file = getFile(fd);
+	if (file == null)
+	    return -1;
+
+	fileTable[fd] = null;
+	file.close();
+	return 0;
+    }
+
+    /**
+     * Handle the unlink() system call.
+     */
+    private int handleUnlink(int nameAddr) {
+	String name = readVirtualMemoryString(nameAddr, maxNameLength);
+	if (name == null)
+	    return -1;
+
+	return UserKernel.openFileTable.unlink(name) ? 0 : -1;
+    }
+
+    /**
+     * Print the resources this process used. The process's console output
+     * is flushed first, so the report follows it.
+     */
+    private void printUsage() {
+	UserKernel.console.flush();
+
+	System.out.println("Process " + processID + " ("
+			   + KThread.currentThread().getName()
+			   + ") " + usage);
+    }
+
+    /**
+     * Handle the read() system call.
+     */
+    private int handleRead(int fd, int vaddr, int size) {
+	OpenFile file = getFile(fd);
+	if (file == null || size < 0)
+	    return -1;
+
+	return readFile(file, vaddr, size);
+    }
+
+    /**
+     * Handle the write() system call.
+     */
+    private int handleWrite(int fd, int vaddr, int size) {
+	OpenFile file = getFile(fd);
+	if (file == null || size < 0)
+	    return -1;
+
+	return writeFile(file, vaddr, size);
+    }
+
+    /**
+     * Handle the aio_read() and aio_write() system calls. Pipes and the
+     * console are refused: a request on one may wait forever, holding up the
+     * I/O worker that every process shares.
+     */
+    private int handleAioSubmit(int fd, int vaddr, int size, boolean read) {
+	OpenFile file = getFile(fd);
+	if (file == null || size < 0)
+	    return -1;
+
+	if (Pipe.isPipeFile(file) || UserKernel.console.isConsoleFile(file))
+	    return -1;
+
+	if (aio == null)
+	    aio = new AsyncIO(this);
+
+	return aio.submit(file, vaddr, size, read);
+    }
+
+    /**
+     * Handle the aio_wait() system call.
+     */
+    private int handleAioWait(int resultsAddr, int max, int block) {
+	if (max <= 0)
+	    return -1;
+
+	// collecting a result discards it, so make sure it can be stored first
+	max = Math.min(max, AsyncIO.maxOutstanding);
+	if (!isWritable(resultsAddr, max*8))
+	    return -1;
+
+	if (aio == null)
+	    return 0;
+
+	int[] results = aio.collect(max, block != 0);
+
+	byte[] data = new byte[results.length*4];
+	for (int i=0; i<results.length; i++)
+	    Lib.bytesFromInt(data, i*4, results[i]);
+	if (writeVirtualMemory(resultsAddr, data) != data.length)
+	    return -1;
+
+	return results.length/2;
+    }
+
+    /**
+     * Handle the getrusage() system call.
+     */
+    private int handleGetrusage(int usageAddr) {
+	byte[] data = usage.toBytes();
+	if (writeVirtualMemory(usageAddr, data) != data.length)
+	    return -1;
+
+	return 0;
+    }
+
+    /**
+     * Read from a file into this process's virtual memory, and count the
+     * bytes read.
+     *
+     * @param	file	the file to read.
+     * @param	vaddr	the first byte of virtual memory to fill.
+     * @param	size	the most bytes to read.
+     * @return	the number of bytes read, or -1 on error.
+     */
+    int readFile(OpenFile file, int vaddr, int size) {
+	int amount = transfer(file, vaddr, size, true);
+	if (amount > 0)
+	    usage.countRead(amount, UserKernel.console.isConsoleFile(file));
+
+	return amount;
+    }
+
+    /**
+     * Write from this process's virtual memory to a file, and count the
+     * bytes written.
+     *
+     * @param	file	the file to write.
+     * @param	vaddr	the first byte of virtual memory to write.
+     * @param	size	the number of bytes to write.
+     * @return	the number of bytes written, or -1 on error.
+     */
+    int writeFile(OpenFile file, int vaddr, int size) {
+	int amount = transfer(file, vaddr, size, false);
+	if (amount > 0)
+	    usage.countWrite(amount, UserKernel.console.isConsoleFile(file));
+
+	return amount;
+    }
+
+    private OpenFile getFile(int fd) {
+	if (fd < 0 || fd >= fileTable.length)
+	    return null;
+
+	return fileTable[fd];
+    }
+
+    /**
+     * Move data between a file and this process's virtual memory in a single
+     * call to the file. The file system may charge a delay for every call,
+     * so a buffer spanning several pages must not cost one call per page.
+     *
+     * <p>
+     * If the buffer's pages lie in consecutive physical frames, as they
+     * usually do, the file is handed that run of physical memory directly,
+     * and the data is copied only once. Otherwise the data goes through a
+     * temporary buffer, costing an extra copy on the host but no extra
+     * simulated time.
+     *
+     * @param	file	the file to read or write.
+     * @param	vaddr	the first byte of virtual memory to transfer.
+     * @param	size	the number of bytes to transfer.
+     * @param	toMemory	<tt>true</tt> to read from the file into memory,
+     *				<tt>false</tt> to write memory to the file.
+     * @return	the number of bytes transferred, or -1 if the first page of
+     *		the buffer is not accessible or the file failed. Only the
+     *		part of the buffer up to the first inaccessible page is
+     *		transferred.
+     */
+    private int transfer(OpenFile file, int vaddr, int size, boolean toMemory) {
+	byte[] memory = Machine.processor().getMemory();
+
+	// find the accessible part of the buffer, and whether it lies in
+	// consecutive frames
+	int length = 0, firstPaddr = 0;
+	boolean contiguous = true;
+	while (length < size) {
+	    TranslationEntry entry = pageFor(vaddr+length, toMemory);
+	    if (entry == null)
+		break;
+
+	    int pageOffset = Processor.offsetFromAddress(vaddr+length);
+	    int paddr = entry.ppn*pageSize + pageOffset;
+	    if (length == 0)
+		firstPaddr = paddr;
+	    else if (paddr != firstPaddr + length)
+		contiguous = false;
+
+	    length += Math.min(size-length, pageSize-pageOffset);
+	}
+
+	if (length == 0)
+	    return (size == 0) ? 0 : -1;
+
+	if (contiguous) {
+	    return toMemory ? file.read(memory, firstPaddr, length)
+		: file.write(memory, firstPaddr, length);
+	}
+
+	byte[] buffer = new byte[length];
+	if (toMemory) {
+	    int count = file.read(buffer, 0, length);
+	    if (count > 0)
+		writeVirtualMemory(vaddr, buffer, 0, count);
+	    return count;
+	}
+	else {
+	    readVirtualMemory(vaddr, buffer, 0, length);
+	    return file.write(buffer, 0, length);
+	}
+    }
 
     private static final int
         syscallHalt = 0,
@@ -357,7 +813,12 @@ public class UserProcess {
 	syscallRead = 6,
 	syscallWrite = 7,
 	syscallClose = 8,
-	syscallUnlink = 9;
+	syscallUnlink = 9,
+	syscallPipe = 13,
+	syscallGetrusage = 14,
+	syscallAioRead = 15,
+	syscallAioWrite = 16,
+	syscallAioWait = 17;
 
     /**
      * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -378,6 +839,14 @@ public class UserProcess {
      *								</tt></td></tr>
      * <tr><td>8</td><td><tt>int  close(int fd);</tt></td></tr>
      * <tr><td>9</td><td><tt>int  unlink(char *name);</tt></td></tr>
+     * <tr><td>13</td><td><tt>int  pipe(int *fileDescriptors);</tt></td></tr>
+     * <tr><td>14</td><td><tt>int  getrusage(struct rusage *usage);</tt></td></tr>
+     * <tr><td>15</td><td><tt>int  aio_read(int fd, char *buffer, int size);
+     *								</tt></td></tr>
+     * <tr><td>16</td><td><tt>int  aio_write(int fd, char *buffer, int size);
+     *								</tt></td></tr>
+     * <tr><td>17</td><td><tt>int  aio_wait(struct aio_result *results,
+     *				int max, int block);</tt></td></tr>
      * </table>
      * 
      * @param	syscall	the syscall number.
@@ -391,7 +860,30 @@ public class UserProcess {
 	switch (syscall) {
 	case syscallHalt:
 	    return handleHalt();
-
+	case syscallExit:
+	    return handleExit(a0);
+	case syscallCreate:
+	    return handleOpen(a0, true);
+	case syscallOpen:
+	    return handleOpen(a0, false);
+	case syscallRead:
+	    return handleRead(a0, a1, a2);
+	case syscallWrite:
+	    return handleWrite(a0, a1, a2);
+	case syscallClose:
+	    return handleClose(a0);
+	case syscallUnlink:
+	    return handleUnlink(a0);
+	case syscallPipe:
+	    return handlePipe(a0);
+	case syscallGetrusage:
+	    return handleGetrusage(a0);
+	case syscallAioRead:
+	    return handleAioSubmit(a0, a1, a2, true);
+	case syscallAioWrite:
+	    return handleAioSubmit(a0, a1, a2, false);
+	case syscallAioWait:
+	    return handleAioWait(a0, a1, a2);
 
 	default:
 	    Lib.debug(dbgProcess, "Unknown syscall " + syscall);
@@ -413,12 +905,18 @@ public class UserProcess {
 
 	switch (cause) {
 	case Processor.exceptionSyscall:
-	    int result = handleSyscall(processor.readRegister(Processor.regV0),
-				       processor.readRegister(Processor.regA0),
-				       processor.readRegister(Processor.regA1),
-				       processor.readRegister(Processor.regA2),
-				       processor.readRegister(Processor.regA3)
-				       );
+	    int syscall = processor.readRegister(Processor.regV0);
+	    int a0 = processor.readRegister(Processor.regA0);
+	    int a1 = processor.readRegister(Processor.regA1);
+	    int a2 = processor.readRegister(Processor.regA2);
+	    int a3 = processor.readRegister(Processor.regA3);
+
+	    usage.countSyscall(syscall);
+	    syscallStartTime = Machine.timer().getTime();
+	    int result = handleSyscall(syscall, a0, a1, a2, a3);
+	    if (trace != null)
+		trace.record(syscallStartTime, syscall, a0, a1, a2, a3, result);
+
 	    processor.writeRegister(Processor.regV0, result);
 	    processor.advancePC();
 	    break;				       
@@ -441,6 +939,31 @@ public class UserProcess {
     /** The number of pages in the program's stack. */
     protected final int stackPages = 8;
     
+    /** This process's open files, indexed by file descriptor. */
+    protected OpenFile[] fileTable = new OpenFile[maxOpenFiles];
+    /** The most files a process may have open at once. */
+    protected static final int maxOpenFiles = 16;
+    /** The longest file name a syscall accepts, not counting the null. */
+    private static final int maxNameLength = 256;
+
+    /** This process's ID. */
+    protected int processID;
+    private static int nextProcessID = 0;
+
+    /** The syscalls made by this process, or <tt>null</tt> if not traced. */
+    protected SyscallTrace trace;
+    /** This process's asynchronous I/O, or <tt>null</tt> if it has none. */
+    private AsyncIO aio = null;
+
+    /** The resources used by this process. */
+    protected ResourceUsage usage = new ResourceUsage();
+
+    /** The time the current syscall started. */
+    private long syscallStartTime;
+
+    /** The number of processes being executed that have not exited. */
+    private static int numProcesses = 0;
+
     private int initialPC, initialSP;
     private int argc, argv;
 	